@@ -0,0 +1,37 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package android.os;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Desktop stand-in, only the shared background executor.
+ */
+public abstract class AsyncTask<Params, Progress, Result> {
+
+    public static final Executor THREAD_POOL_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "AsyncTask");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+}
@@ -0,0 +1,44 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package android.os;
+
+/**
+ * Desktop stand-in: there is a main looper, but no thread runs it. A
+ * thread calling {@link #prepareMainLooper()} is taken for the main thread
+ * from then on, to exercise what the library does there.
+ */
+public final class Looper {
+
+    private static final Looper MAIN = new Looper();
+    private static final ThreadLocal<Looper> MINE = new ThreadLocal<Looper>();
+
+    private Looper() {
+    }
+
+    public static void prepareMainLooper() {
+        MINE.set(MAIN);
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return MINE.get();
+    }
+}
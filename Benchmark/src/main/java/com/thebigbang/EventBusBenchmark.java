@@ -0,0 +1,109 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Events raised the way the monitor thread does, to 1, 4 or 16 listeners,
+ * on the IO thread or all on one executor, with and without
+ * {@link SerialPort#setEventPooling}. Run with -prof gc to compare the bytes
+ * allocated per event.
+ * <br/>
+ * Unlike the other benchmarks this one is in the library package and not
+ * in com.thebigbang.benchmark: the event bus is package-private, and a port
+ * only raises events from its monitor thread, at the pace of the device,
+ * so only the bus itself can be driven as fast as it goes.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBusBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int listeners;
+    /**
+     * io: every listener on the IO thread, executor: every one on the same
+     * single thread executor.
+     */
+    @Param({"io", "executor"})
+    public String delivery;
+    @Param({"false", "true"})
+    public boolean pooled;
+    private EventBus bus;
+    private ExecutorService executor;
+    private final Object source = new Object();
+    private int available = 0;
+    private volatile long sink = 0;
+
+    @Setup
+    public void setup() {
+        bus = new EventBus(new PortMetrics());
+        bus.setPooling(pooled);
+        executor = Executors.newSingleThreadExecutor();
+        Executor e = delivery.equals("io") ? EventDelivery.IO_THREAD : executor;
+        for (int i = 0; i < listeners; i++) {
+            bus.add(new SerialPortEventListener() {
+                @Override
+                public void serialEvent(SerialPortEvent ev) {
+                    sink = ev.getBytesAvailable() + ev.getTimestamp();
+                }
+            }, EventBus.mask(SerialPortEvent.DATA_AVAILABLE, SerialPortEvent.CTS), e);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Bytes arrived, then a modem line changed.
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public long dispatch() {
+        bus.dispatch(bus.obtain(source, SerialPortEvent.DATA_AVAILABLE, false,
+                false, ++available, System.nanoTime()));
+        bus.dispatch(bus.obtain(source, SerialPortEvent.CTS, false, true, 0,
+                System.nanoTime()));
+        return sink;
+    }
+}
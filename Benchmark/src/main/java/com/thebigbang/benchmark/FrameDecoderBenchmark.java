@@ -0,0 +1,154 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang.benchmark;
+
+import com.thebigbang.CobsDecoder;
+import com.thebigbang.FrameDecoder;
+import com.thebigbang.FrameListener;
+import com.thebigbang.LengthPrefixDecoder;
+import com.thebigbang.SlipDecoder;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The {@link FrameDecoder}s fed with USB packets, as the receive thread
+ * does. Text payloads take the no-copy path when a frame fits in a packet,
+ * binary ones need escapes (SLIP) or several blocks (COBS). One operation
+ * is one frame.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+
+    private static final int FRAMES = 64;
+    @Param({"length", "slip", "cobs"})
+    public String codec;
+    @Param({"text", "binary"})
+    public String payload;
+    @Param({"16", "200"})
+    public int payloadSize;
+    @Param({"64"})
+    public int packetSize;
+    private FrameDecoder decoder;
+    private FrameListener listener;
+    /**
+     * FRAMES encoded frames, fed packetSize bytes at a time.
+     */
+    private byte[] stream;
+
+    @Setup
+    public void setup(final Blackhole bh) {
+        Random r = new Random(42);
+        ByteArrayOutputStream s = new ByteArrayOutputStream();
+        byte[] p = new byte[payloadSize];
+        for (int f = 0; f < FRAMES; f++) {
+            if (payload.equals("text")) {
+                for (int i = 0; i < p.length; i++) {
+                    p[i] = (byte) ('a' + r.nextInt(26));
+                }
+            } else {
+                r.nextBytes(p);
+            }
+            if (codec.equals("length")) {
+                s.write(p.length >>> 8);
+                s.write(p.length);
+                s.write(p, 0, p.length);
+            } else if (codec.equals("slip")) {
+                slip(p, s);
+            } else {
+                cobs(p, s);
+            }
+        }
+        stream = s.toByteArray();
+        if (codec.equals("length")) {
+            decoder = new LengthPrefixDecoder(2, true, 1024);
+        } else if (codec.equals("slip")) {
+            decoder = new SlipDecoder(1024);
+        } else {
+            decoder = new CobsDecoder(1024);
+        }
+        listener = new FrameListener() {
+            @Override
+            public void onFrame(byte b[], int off, int len) {
+                bh.consume(b[off + len - 1]);
+            }
+        };
+    }
+
+    private static void slip(byte p[], ByteArrayOutputStream s) {
+        for (byte c : p) {
+            if (c == SlipDecoder.END) {
+                s.write(SlipDecoder.ESC);
+                s.write(SlipDecoder.ESC_END);
+            } else if (c == SlipDecoder.ESC) {
+                s.write(SlipDecoder.ESC);
+                s.write(SlipDecoder.ESC_ESC);
+            } else {
+                s.write(c);
+            }
+        }
+        s.write(SlipDecoder.END);
+    }
+
+    private static void cobs(byte p[], ByteArrayOutputStream s) {
+        int block = 0;
+        while (true) {
+            int end = block;
+            while (end < p.length && end - block < 254 && p[end] != 0) {
+                end++;
+            }
+            s.write(end - block + 1);
+            s.write(p, block, end - block);
+            if (end == p.length) {
+                break;
+            }
+            // skip the zero, a full block of 254 has none.
+            block = p[end] == 0 ? end + 1 : end;
+        }
+        s.write(0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void decode() {
+        for (int off = 0; off < stream.length; off += packetSize) {
+            decoder.decode(stream, off, Math.min(packetSize, stream.length - off), listener);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang.benchmark;
+
+import com.thebigbang.FrameReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Terminator scanning: {@link FrameReader#readFrame} splitting a stream of
+ * text lines, the path of SerialInputStream.read(byte[], int, int, byte[]).
+ * One operation is one frame.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameReaderBenchmark {
+
+    /**
+     * LF, CRLF as NMEA sentences, CRLF and the prompt of AT modems.
+     */
+    private static final byte[][] DELIMITERS = {{'\n'}, {'\r', '\n'}, {'\r', '\n', '>'}};
+    /**
+     * Frame length, delimiter included.
+     */
+    @Param({"16", "80", "1024"})
+    public int frameSize;
+    @Param({"1", "2", "3"})
+    public int delimiterLength;
+    /**
+     * Bytes received per USB packet.
+     */
+    @Param({"64"})
+    public int packetSize;
+    private FrameReader reader;
+    private byte[] frame;
+
+    @Setup
+    public void setup() {
+        byte[] delimiter = DELIMITERS[delimiterLength - 1];
+        // a few frames, so that they straddle the packets differently.
+        byte[] data = new byte[frameSize * 7];
+        for (int i = 0; i < data.length; i++) {
+            int p = i % frameSize;
+            int d = p - (frameSize - delimiter.length);
+            data[i] = d >= 0 ? delimiter[d] : (byte) ('A' + (i * 31 + p) % 26);
+        }
+        reader = new FrameReader(new RepeatingInputStream(data, packetSize), delimiter, 4096);
+        frame = new byte[4096];
+    }
+
+    @Benchmark
+    public int readFrame() throws IOException {
+        return reader.readFrame(frame, 0, frame.length);
+    }
+}
@@ -0,0 +1,124 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang.benchmark;
+
+import android.os.Looper;
+import com.thebigbang.EventDelivery;
+import com.thebigbang.LoopbackDriver;
+import com.thebigbang.SerialPort;
+import com.thebigbang.SerialPortEvent;
+import com.thebigbang.SerialPortEventListener;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes called on the main thread, to an instant {@link LoopbackDriver}:
+ * <ul>
+ * <li>threadPerWrite: how 1.2 did it, a new thread per write and a spin on
+ * isAlive() until it finished, kept here as the baseline.</li>
+ * <li>streamWrite: the output stream now, the write goes to the I/O thread
+ * of the port and the caller waits for it.</li>
+ * <li>writeAsync: {@link SerialPort#writeAsync} 64 times, then a wait for
+ * the last one only.</li>
+ * </ul>
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MainThreadWriteBenchmark {
+
+    @Param({"16", "256"})
+    public int payloadSize;
+    private SerialPort port;
+    private OutputStream out;
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        // the benchmark thread plays the main thread.
+        Looper.prepareMainLooper();
+        port = SerialPort.Init(new LoopbackDriver(), 115200);
+        // writes are dropped until a listener is added.
+        port.addEventListener(new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+            }
+        }, EventDelivery.IO_THREAD, SerialPortEvent.CONNECTION);
+        out = port.getOutputStream();
+        payload = new byte[payloadSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        port.close();
+    }
+
+    @Benchmark
+    public void threadPerWrite() {
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    out.write(payload, 0, payload.length);
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        };
+        t.start();
+        while (t.isAlive()) {
+        }
+    }
+
+    @Benchmark
+    public void streamWrite() throws IOException {
+        out.write(payload, 0, payload.length);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(64)
+    public int writeAsync() throws InterruptedException, ExecutionException {
+        Future<Integer> last = null;
+        for (int i = 0; i < 64; i++) {
+            last = port.writeAsync(payload, 0, payload.length);
+        }
+        return last.get();
+    }
+}
@@ -0,0 +1,58 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang.benchmark;
+
+import java.io.InputStream;
+
+/**
+ * Endless stream replaying the same bytes, handing out at most one USB
+ * packet per read like a serial port does. Never allocates.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+final class RepeatingInputStream extends InputStream {
+
+    private final byte[] data;
+    private final int packetSize;
+    private int position = 0;
+
+    /**
+     * @param data [] the bytes to repeat
+     * @param packetSize the most bytes returned by one read
+     */
+    RepeatingInputStream(byte data[], int packetSize) {
+        this.data = data;
+        this.packetSize = packetSize;
+    }
+
+    @Override
+    public int read() {
+        int r = data[position] & 0xff;
+        position = (position + 1) % data.length;
+        return r;
+    }
+
+    @Override
+    public int read(byte b[], int off, int len) {
+        int n = Math.min(Math.min(len, packetSize), data.length - position);
+        System.arraycopy(data, position, b, off, n);
+        position = (position + n) % data.length;
+        return n;
+    }
+}
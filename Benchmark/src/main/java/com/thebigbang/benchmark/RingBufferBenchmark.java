@@ -0,0 +1,90 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang.benchmark;
+
+import com.thebigbang.RingBuffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link RingBuffer}: one chunk stored by the receive thread then taken out
+ * by the application, into an array, a direct ByteBuffer or up to a framing
+ * byte. The position moves on every operation so that chunks wrap around
+ * the end of the buffer.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int chunkSize;
+    private RingBuffer ring;
+    private byte[] chunk;
+    private byte[] dst;
+    private ByteBuffer direct;
+
+    @Setup
+    public void setup() {
+        // 64KiB, the input buffer of a port.
+        ring = new RingBuffer(64 * 1024 + 7, RingBuffer.OverflowPolicy.DROP_OLDEST);
+        chunk = new byte[chunkSize];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) ('0' + i % 10);
+        }
+        chunk[chunk.length - 1] = '\n';
+        dst = new byte[chunkSize];
+        direct = ByteBuffer.allocateDirect(chunkSize);
+    }
+
+    @Benchmark
+    public int writeRead() {
+        ring.write(chunk, 0, chunk.length);
+        return ring.read(dst, 0, dst.length);
+    }
+
+    @Benchmark
+    public int writeReadDirect() {
+        ring.write(chunk, 0, chunk.length);
+        direct.clear();
+        return ring.read(direct);
+    }
+
+    @Benchmark
+    public int writeReadUntil() {
+        ring.write(chunk, 0, chunk.length);
+        return ring.readUntil(dst, 0, dst.length, (byte) '\n');
+    }
+}
@@ -0,0 +1,97 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang.benchmark;
+
+import com.thebigbang.LoopbackDriver;
+import com.thebigbang.SerialPort;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The port input stream on an instant {@link LoopbackDriver}: one chunk
+ * received, then read into the caller's array at offset. At offset 0 the
+ * bytes come straight from the device, elsewhere they go through the receive
+ * thread, which polls the device every millisecond while data flows.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialInputStreamBenchmark {
+
+    @Param({"0", "1", "13"})
+    public int offset;
+    @Param({"64", "1024"})
+    public int chunkSize;
+    private LoopbackDriver driver;
+    private SerialPort port;
+    private InputStream in;
+    private byte[] chunk;
+    private byte[] dst;
+
+    @Setup
+    public void setup() {
+        driver = new LoopbackDriver();
+        port = SerialPort.Init(driver, 115200);
+        port.setPollInterval(1, 1);
+        port.enableReceiveTimeout(1000);
+        in = port.getInputStream();
+        chunk = new byte[chunkSize];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) ('0' + i % 10);
+        }
+        dst = new byte[offset + chunkSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        port.close();
+    }
+
+    @Benchmark
+    public int receiveRead() throws IOException {
+        driver.inject(chunk, 0, chunk.length);
+        int n = 0;
+        while (n < chunkSize) {
+            int r = in.read(dst, offset + n, chunkSize - n);
+            if (r <= 0) {
+                throw new IOException("Nothing received");
+            }
+            n += r;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,91 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang.benchmark;
+
+import com.thebigbang.EventDelivery;
+import com.thebigbang.LoopbackDriver;
+import com.thebigbang.SerialPort;
+import com.thebigbang.SerialPortEvent;
+import com.thebigbang.SerialPortEventListener;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The port output stream on an instant {@link LoopbackDriver}: one payload
+ * written from the caller's array at offset. At offset 0 the array goes to
+ * the driver as is, elsewhere it is copied into a buffer of the stream
+ * first.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialOutputStreamBenchmark {
+
+    @Param({"0", "13"})
+    public int offset;
+    @Param({"1", "16", "256", "4096"})
+    public int payloadSize;
+    private SerialPort port;
+    private OutputStream out;
+    private byte[] src;
+
+    @Setup
+    public void setup() {
+        port = SerialPort.Init(new LoopbackDriver(), 115200);
+        // writes are dropped until a listener is added.
+        port.addEventListener(new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+            }
+        }, EventDelivery.IO_THREAD, SerialPortEvent.CONNECTION);
+        out = port.getOutputStream();
+        src = new byte[offset + payloadSize];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) ('0' + i % 10);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        port.close();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        out.write(src, offset, payloadSize);
+    }
+}
@@ -0,0 +1,89 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang.benchmark;
+
+import com.thebigbang.SerialPortConfig;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link SerialPortConfig}: building a configuration, which converts it to
+ * the FTDI and Prolific values once, changing its baud rate as a rate
+ * detection does, and reading the converted values back.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialPortConfigBenchmark {
+
+    private static final int[] RATES = {9600, 115200, 19200, 38400, 57600, 4800, 230400, 921600};
+    private SerialPortConfig config;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        config = SerialPortConfig.newBuilder().setBaudRate(115200).build();
+    }
+
+    private int nextRate() {
+        next = (next + 1) & 7;
+        return RATES[next];
+    }
+
+    @Benchmark
+    public SerialPortConfig build() {
+        return SerialPortConfig.newBuilder()
+                .setBaudRate(nextRate())
+                .setDataBits(8)
+                .setStopBits(1)
+                .setParity(SerialPortConfig.PARITY_EVEN)
+                .setFlowControl(SerialPortConfig.FLOW_RTS_CTS)
+                .build();
+    }
+
+    @Benchmark
+    public SerialPortConfig withBaudRate() {
+        config = config.withBaudRate(nextRate());
+        return config;
+    }
+
+    @Benchmark
+    public Object convertToProlific() {
+        return config.convertToProlificBaudRate();
+    }
+
+    @Benchmark
+    public long frameTime() {
+        return config.getFrameTimeNanos(64);
+    }
+}
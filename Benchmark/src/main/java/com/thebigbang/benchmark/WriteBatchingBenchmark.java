@@ -0,0 +1,97 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang.benchmark;
+
+import com.thebigbang.EventDelivery;
+import com.thebigbang.LoopbackDriver;
+import com.thebigbang.SerialPort;
+import com.thebigbang.SerialPortEvent;
+import com.thebigbang.SerialPortEventListener;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Small messages written with {@link SerialPort#setWriteBatching(int, long)},
+ * to a {@link LoopbackDriver} where every write takes at least 100us, as a
+ * USB transfer: messages per second as the batch size and the longest delay
+ * vary. A batch size of 0 is batching off, the delay does not matter then.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBatchingBenchmark {
+
+    @Param({"0", "64", "512"})
+    public int batchSize;
+    @Param({"100", "1000"})
+    public long delayMicros;
+    @Param({"16"})
+    public int messageSize;
+    private SerialPort port;
+    private OutputStream out;
+    private byte[] message;
+
+    @Setup
+    public void setup() {
+        LoopbackDriver driver = new LoopbackDriver();
+        driver.setTransferTime(100000);
+        port = SerialPort.Init(driver, 115200);
+        // writes are dropped until a listener is added.
+        port.addEventListener(new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+            }
+        }, EventDelivery.IO_THREAD, SerialPortEvent.CONNECTION);
+        port.setWriteBatching(batchSize, delayMicros);
+        out = port.getOutputStream();
+        message = new byte[messageSize];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) ('0' + i % 10);
+        }
+        message[message.length - 1] = '\n';
+    }
+
+    @TearDown
+    public void tearDown() {
+        port.close();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        out.write(message, 0, message.length);
+    }
+}
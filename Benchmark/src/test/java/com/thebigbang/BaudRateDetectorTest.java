@@ -0,0 +1,142 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * {@link BaudRateDetector} against a {@link LoopbackDriver} whose remote end
+ * sends at a rate the port does not know.
+ */
+public class BaudRateDetectorTest {
+
+    private static final byte[] READING = "T=23.5C H=40%\r\n".getBytes();
+    private LoopbackDriver driver;
+    private SerialPort port;
+    private Thread instrument;
+
+    /**
+     * Open a port at 9600 bauds on a device sending at hidden bauds.
+     *
+     * @param sample what the device sends, over and over
+     */
+    private void plug(final int hidden, final byte sample[]) {
+        driver = new LoopbackDriver(9600, 0, 0, 1);
+        driver.setRemoteBaudRate(hidden);
+        port = SerialPort.Init(driver, 9600);
+        instrument = new Thread("instrument") {
+            @Override
+            public void run() {
+                // hidden / 10 bytes per second, a few at a time.
+                double due = 0;
+                int i = 0;
+                try {
+                    while (true) {
+                        due += hidden / 2000.0;
+                        for (; due >= 1; due--) {
+                            driver.inject(sample, i++ % sample.length, 1);
+                        }
+                        Thread.sleep(5);
+                    }
+                } catch (InterruptedException ex) {
+                }
+            }
+        };
+        instrument.setDaemon(true);
+        instrument.start();
+    }
+
+    @After
+    public void unplug() throws InterruptedException {
+        if (instrument != null) {
+            instrument.interrupt();
+            instrument.join();
+        }
+        if (port != null) {
+            port.close();
+        }
+    }
+
+    @Test
+    public void findsCommonRatesWellUnderASecond() throws Exception {
+        for (int hidden : new int[]{9600, 115200, 19200, 57600}) {
+            plug(hidden, READING);
+            long t0 = System.nanoTime();
+            assertEquals(hidden, new BaudRateDetector(port).detect());
+            long ms = (System.nanoTime() - t0) / 1000000;
+            assertTrue(hidden + " bauds took " + ms + "ms", ms < 500);
+            assertEquals(hidden, driver.getBaudRate());
+            unplug();
+        }
+    }
+
+    @Test
+    public void findsRatesTriedLast() throws Exception {
+        for (int hidden : new int[]{1200, 460800}) {
+            plug(hidden, READING);
+            assertEquals(hidden, new BaudRateDetector(port).detect());
+            unplug();
+        }
+    }
+
+    @Test
+    public void findsBinaryProtocols() throws Exception {
+        byte[] frame = new byte[64];
+        new Random(7).nextBytes(frame);
+        plug(38400, frame);
+        assertEquals(38400, new BaudRateDetector(port)
+                .setValidator(BaudRateDetector.ANY).detect());
+    }
+
+    @Test
+    public void restoresTheRateWhenNothingMatches() throws Exception {
+        driver = new LoopbackDriver(9600, 0, 0, 1);
+        port = SerialPort.Init(driver, 9600);
+        assertEquals(0, new BaudRateDetector(port).setRates(1200, 4800, 57600).detect());
+        assertEquals(9600, driver.getBaudRate());
+    }
+
+    @Test
+    public void leavesTheListenersAndWritesAsTheyWere() throws Exception {
+        plug(9600, READING);
+        int events = port.getStatusEvents();
+        assertEquals(9600, new BaudRateDetector(port).detect());
+        assertEquals(0, port.getListenerCount());
+        assertEquals(events, port.getStatusEvents());
+        // no listener was added: writes are still dropped.
+        assertFalse(port.isMonitoring());
+        assertFalse(port.out.acceptsWrites());
+
+        SerialPortEventListener mine = new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+            }
+        };
+        port.addEventListener(mine, EventDelivery.IO_THREAD, SerialPortEvent.CTS);
+        assertEquals(9600, new BaudRateDetector(port).detect());
+        assertEquals(1, port.getListenerCount());
+        assertTrue(port.isMonitoring());
+        assertTrue(port.out.acceptsWrites());
+    }
+}
@@ -0,0 +1,150 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * {@link EventBus} with and without pooling.
+ */
+public class EventBusTest {
+
+    private final Object source = new Object();
+
+    /**
+     * @return the bytes allocated by this thread to dispatch n events to a
+     * listener on the IO thread.
+     */
+    private long allocated(boolean pooled, int n) {
+        EventBus bus = new EventBus(new PortMetrics());
+        bus.setPooling(pooled);
+        final long[] sink = new long[1];
+        bus.add(new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+                sink[0] += ev.getBytesAvailable();
+            }
+        }, EventBus.mask(), EventDelivery.IO_THREAD);
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long before = mx.getThreadAllocatedBytes(id);
+        for (int i = 0; i < n; i++) {
+            bus.dispatch(bus.obtain(source, SerialPortEvent.DATA_AVAILABLE,
+                    false, false, i, System.nanoTime()));
+        }
+        return mx.getThreadAllocatedBytes(id) - before;
+    }
+
+    @Test
+    public void poolingAllocatesNoEvents() {
+        int n = 200000;
+        // warm up both paths first.
+        allocated(false, n);
+        allocated(true, n);
+        long unpooled = allocated(false, n);
+        long pooled = allocated(true, n);
+        assertTrue("unpooled: " + unpooled + " bytes", unpooled > 16L * n);
+        assertTrue("pooled: " + pooled + " bytes", pooled < unpooled / 10);
+    }
+
+    @Test
+    public void pooledEventsDoNotChangeUnderAListener() throws Exception {
+        EventBus bus = new EventBus(new PortMetrics());
+        bus.setPooling(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        final int n = 20000;
+        final CountDownLatch delivered = new CountDownLatch(n);
+        final int[] changed = new int[1];
+        bus.add(new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+                int before = ev.getBytesAvailable();
+                Thread.yield();
+                if (ev.getBytesAvailable() != before) {
+                    synchronized (changed) {
+                        changed[0]++;
+                    }
+                }
+                delivered.countDown();
+            }
+        }, EventBus.mask(SerialPortEvent.CTS), executor);
+        for (int i = 0; i < n; i++) {
+            bus.dispatch(bus.obtain(source, SerialPortEvent.CTS, false, true, i,
+                    System.nanoTime()));
+        }
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(0, changed[0]);
+    }
+
+    /**
+     * A listener behind on its executor gets one DATA_AVAILABLE event for
+     * all the bytes, with the count when it is called.
+     */
+    private void tellsTheBytesAvailableWhenDelivered(boolean pooled) throws Exception {
+        RingBuffer input = new RingBuffer(1024, RingBuffer.OverflowPolicy.DROP_OLDEST);
+        EventBus bus = new EventBus(new PortMetrics(), input);
+        bus.setPooling(pooled);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch busy = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException ex) {
+                }
+            }
+        });
+        final List<Integer> told = new CopyOnWriteArrayList<Integer>();
+        bus.add(new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+                told.add(ev.getBytesAvailable());
+            }
+        }, EventBus.mask(SerialPortEvent.DATA_AVAILABLE), executor);
+        byte[] chunk = new byte[10];
+        for (int i = 0; i < 3; i++) {
+            input.write(chunk, 0, chunk.length);
+            bus.dispatch(bus.obtain(source, SerialPortEvent.DATA_AVAILABLE,
+                    false, false, input.available(), System.nanoTime()));
+        }
+        busy.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(30), told);
+    }
+
+    @Test
+    public void tellsTheBytesAvailableWhenDelivered() throws Exception {
+        tellsTheBytesAvailableWhenDelivered(false);
+        tellsTheBytesAvailableWhenDelivered(true);
+    }
+}
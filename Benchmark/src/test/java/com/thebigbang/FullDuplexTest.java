@@ -0,0 +1,124 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * One thread writing while another reads the echo, on a device whose writes
+ * block until their bytes went through the line: reads must go on while a
+ * write is blocked.
+ */
+public class FullDuplexTest {
+
+    private static final int BAUD_RATE = 921600;
+    private static final int WRITE_SIZE = 8 * 1024;
+    private static final int WRITES = 16;
+    private LoopbackDriver driver;
+    private SerialPort port;
+
+    @Before
+    public void plug() {
+        driver = new LoopbackDriver(BAUD_RATE, 0, 0, 1);
+        driver.setBlockingWrite(true);
+        port = SerialPort.Init(driver, BAUD_RATE);
+        port.enableReceiveTimeout(2000);
+        // writes are dropped until a listener is added.
+        port.addEventListener(new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+            }
+        }, EventDelivery.IO_THREAD, SerialPortEvent.CONNECTION);
+    }
+
+    @After
+    public void unplug() {
+        port.close();
+    }
+
+    @Test
+    public void readsWhileAWriteIsBlocked() throws Exception {
+        final byte[] sent = new byte[WRITES * WRITE_SIZE];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = (byte) (i % 251);
+        }
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        // when each read returned.
+        final long[] reads = new long[sent.length];
+        final int[] readCount = new int[1];
+        final InputStream in = port.getInputStream();
+        Thread reader = new Thread("reader") {
+            @Override
+            public void run() {
+                byte[] b = new byte[1024];
+                try {
+                    while (received.size() < sent.length) {
+                        int n = in.read(b);
+                        if (n <= 0) {
+                            return;
+                        }
+                        reads[readCount[0]++] = System.nanoTime();
+                        received.write(b, 0, n);
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        };
+        reader.start();
+
+        OutputStream out = port.getOutputStream();
+        long[] writeStart = new long[WRITES];
+        long[] writeEnd = new long[WRITES];
+        for (int i = 0; i < WRITES; i++) {
+            writeStart[i] = System.nanoTime();
+            out.write(sent, i * WRITE_SIZE, WRITE_SIZE);
+            writeEnd[i] = System.nanoTime();
+        }
+        reader.join(5000);
+        assertArrayEquals(sent, received.toByteArray());
+
+        // 8 KiB take 89ms on the line: the reader sees some of them echoed
+        // during every write, not only once it returned.
+        long maxGap = 0;
+        for (int r = 1; r < readCount[0]; r++) {
+            maxGap = Math.max(maxGap, reads[r] - reads[r - 1]);
+        }
+        for (int i = 0; i < WRITES; i++) {
+            long ms = (writeEnd[i] - writeStart[i]) / 1000000;
+            assertTrue("write " + i + " did not block: " + ms + "ms", ms >= 40);
+            int during = 0;
+            for (int r = 0; r < readCount[0]; r++) {
+                if (reads[r] > writeStart[i] && reads[r] < writeEnd[i]) {
+                    during++;
+                }
+            }
+            assertTrue("no read during write " + i + " of " + ms + "ms", during > 0);
+        }
+        assertTrue("longest gap between reads " + maxGap / 1000000 + "ms",
+                maxGap < 30000000L);
+    }
+}
@@ -0,0 +1,171 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * CPU used by the receive and monitor threads of a port, and how late its
+ * DATA_AVAILABLE events come, on a {@link LoopbackDriver} idle or dripping
+ * bytes at 9600 bauds. The threads poll with a backoff and park while
+ * nothing happens: an idle port must cost next to nothing, and an event must
+ * not wait more than the longest poll interval.
+ */
+public class ReceiveCpuTest {
+
+    private final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    private LoopbackDriver driver;
+    private SerialPort port;
+    /**
+     * threads of the port.
+     */
+    private final List<Thread> threads = new ArrayList<Thread>();
+    /**
+     * System.nanoTime() of every DATA_AVAILABLE event.
+     */
+    private final List<Long> events = new ArrayList<Long>();
+
+    private void open(long pollMin, long pollMax) {
+        Set<Thread> before = new HashSet<Thread>(Thread.getAllStackTraces().keySet());
+        driver = new LoopbackDriver(9600, 0, 0, 1);
+        port = SerialPort.Init(driver, 9600);
+        port.setPollInterval(pollMin, pollMax);
+        port.notifyOnDataAvailable(true);
+        port.addEventListener(new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+                long now = System.nanoTime();
+                synchronized (events) {
+                    events.add(now);
+                }
+                try {
+                    port.getInputStream().skip(ev.getBytesAvailable());
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        }, EventDelivery.IO_THREAD, SerialPortEvent.DATA_AVAILABLE);
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (!before.contains(t) && t.getName().startsWith("serial")) {
+                threads.add(t);
+            }
+        }
+        assertTrue("threads of the port: " + threads, threads.size() >= 2);
+    }
+
+    @After
+    public void close() {
+        if (port != null) {
+            port.close();
+        }
+    }
+
+    /**
+     * @return the cpu time of the threads of the port so far, in nanoseconds.
+     */
+    private long cpu() {
+        long t = 0;
+        for (Thread th : threads) {
+            long c = mx.getThreadCpuTime(th.getId());
+            if (c > 0) {
+                t += c;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Send a 10 bytes message every period for duration, and check how late
+     * the events come after the first byte of each.
+     *
+     * @return the longest delay, in milliseconds
+     */
+    private long drip(long periodMillis, long durationMillis) throws Exception {
+        byte[] message = "T=23.5C\r\n>".getBytes();
+        List<Long> sent = new ArrayList<Long>();
+        long end = System.nanoTime() + durationMillis * 1000000L;
+        while (System.nanoTime() < end) {
+            // the first byte is on the line for 1ms at 9600 bauds.
+            sent.add(System.nanoTime() + 1041667L);
+            driver.inject(message, 0, message.length);
+            Thread.sleep(periodMillis);
+        }
+        long worst = 0;
+        synchronized (events) {
+            int e = 0;
+            for (long s : sent) {
+                while (e < events.size() && events.get(e) < s) {
+                    e++;
+                }
+                assertTrue("no event for a message", e < events.size());
+                worst = Math.max(worst, events.get(e) - s);
+            }
+        }
+        return worst / 1000000L;
+    }
+
+    @Test
+    public void idlePortBarelyUsesTheCpu() throws Exception {
+        open(1, 50);
+        // let the polls back off.
+        Thread.sleep(300);
+        long c0 = cpu();
+        long t0 = System.nanoTime();
+        Thread.sleep(2000);
+        double share = (double) (cpu() - c0) / (System.nanoTime() - t0);
+        System.out.printf("idle port: %.3f%% of a core%n", share * 100);
+        assertTrue(share * 100 + "% of a core", share < 0.02);
+    }
+
+    @Test
+    public void eventsWaitAtMostTheLongestPollInterval() throws Exception {
+        open(1, 50);
+        long c0 = cpu();
+        long t0 = System.nanoTime();
+        // idle long enough between messages for the polls to back off.
+        long worst = drip(200, 3000);
+        double share = (double) (cpu() - c0) / (System.nanoTime() - t0);
+        System.out.printf("message every 200ms, poll 1-50ms: worst event delay %dms, %.3f%% of a core%n",
+                worst, share * 100);
+        assertTrue(worst + "ms", worst <= 50 + 20);
+        assertTrue(share * 100 + "% of a core", share < 0.05);
+    }
+
+    @Test
+    public void aShortPollIntervalKeepsEventsPrompt() throws Exception {
+        open(1, 4);
+        long c0 = cpu();
+        long t0 = System.nanoTime();
+        long worst = drip(50, 3000);
+        double share = (double) (cpu() - c0) / (System.nanoTime() - t0);
+        System.out.printf("message every 50ms, poll 1-4ms: worst event delay %dms, %.3f%% of a core%n",
+                worst, share * 100);
+        assertTrue(worst + "ms", worst <= 4 + 20);
+        assertTrue(share * 100 + "% of a core", share < 0.10);
+    }
+}
@@ -0,0 +1,119 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link ReplayDriver} on a file holding two {@link PortCapture} sessions.
+ */
+public class ReplayDriverTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("capture", ".spcap");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private void capture(long timestamp, String... received) throws Exception {
+        PortCapture c = new PortCapture(file);
+        for (String r : received) {
+            byte[] b = r.getBytes();
+            c.record(0, PortCapture.RX, timestamp, b, 0, b.length);
+            c.record(0, PortCapture.TX, timestamp, b, 0, b.length);
+            timestamp += 20000000L;
+        }
+        c.close();
+    }
+
+    @Test
+    public void marksAppendedCaptures() throws Exception {
+        capture(1000000000L, "a");
+        capture(2000000000L, "b");
+        PortCapture.Reader r = new PortCapture.Reader(file);
+        StringBuilder directions = new StringBuilder();
+        while (r.next()) {
+            directions.append(r.getDirection());
+        }
+        r.close();
+        assertEquals("01" + "2" + "01", directions.toString());
+    }
+
+    @Test
+    public void playsAppendedCapturesWithoutTheGapBetweenThem() throws Exception {
+        // the second capture starts a minute later on the capture clock.
+        long t = 5000000000L;
+        capture(t, "one", "two");
+        capture(t + 60000000000L, "three", "four");
+        ReplayDriver d = new ReplayDriver(file, 0, 1);
+        ByteArrayOutputStream played = new ByteArrayOutputStream();
+        byte[] b = new byte[64];
+        long t0 = System.nanoTime();
+        while (!d.isFinished() && System.nanoTime() - t0 < 5000000000L) {
+            int n = d.read(b, b.length);
+            played.write(b, 0, n);
+            Thread.sleep(1);
+        }
+        long ms = (System.nanoTime() - t0) / 1000000;
+        d.close();
+        assertArrayEquals("onetwothreefour".getBytes(), played.toByteArray());
+        // 20ms between the records of each capture, none between captures.
+        assertTrue(ms + "ms", ms >= 40 && ms < 1000);
+    }
+
+    @Test
+    public void rejectsARecordLongerThanTheFile() throws Exception {
+        capture(1000000000L, "a");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true));
+        out.writeByte(PortCapture.RX);
+        out.writeShort(0);
+        out.writeLong(2000000000L);
+        out.writeInt(Integer.MAX_VALUE);
+        out.close();
+        PortCapture.Reader r = new PortCapture.Reader(file);
+        try {
+            assertTrue(r.next());
+            assertTrue(r.next());
+            r.next();
+            fail("read a record of " + r.getLength() + " bytes");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Corrupted capture"));
+        } finally {
+            r.close();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reads of the port input stream at every offset, through the receive thread
+ * and straight from the device, against an instant {@link LoopbackDriver}.
+ */
+public class SerialInputStreamTest {
+
+    /**
+     * Never received: the bytes sent are all below it.
+     */
+    private static final byte UNTOUCHED = (byte) 0xff;
+    private LoopbackDriver driver;
+    private SerialPort port;
+    private InputStream in;
+
+    @Before
+    public void plug() {
+        driver = new LoopbackDriver();
+        port = SerialPort.Init(driver, 115200);
+        port.enableReceiveTimeout(2000);
+        in = port.getInputStream();
+    }
+
+    @After
+    public void unplug() {
+        port.close();
+    }
+
+    /**
+     * @return n bytes counting modulo 251, never {@link #UNTOUCHED}.
+     */
+    private static byte[] pattern(int n) {
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = (byte) (i % 251);
+        }
+        return b;
+    }
+
+    /**
+     * Read into a fresh array at off, check nothing outside of the bytes
+     * returned was written, and keep these.
+     *
+     * @return the number of bytes read
+     */
+    private int readAt(int off, int len, ByteArrayOutputStream received) throws Exception {
+        byte[] b = new byte[off + len + 8];
+        Arrays.fill(b, UNTOUCHED);
+        int n = in.read(b, off, len);
+        assertTrue("nothing read at " + off, n > 0);
+        for (int i = 0; i < b.length; i++) {
+            if (i < off || i >= off + n) {
+                assertEquals("byte " + i + " written by a read at " + off, UNTOUCHED, b[i]);
+            }
+        }
+        received.write(b, off, n);
+        return n;
+    }
+
+    @Test
+    public void readsAtEveryOffset() throws Exception {
+        byte[] sent = pattern(48 * 1024);
+        driver.inject(sent, 0, sent.length);
+        int[] offsets = {1, 0, 2, 7, 100, 4095, 0, 13};
+        int[] lengths = {1, 5, 64, 333, 4096, 17};
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for (int i = 0; received.size() < sent.length; i++) {
+            int len = Math.min(lengths[i % lengths.length], sent.length - received.size());
+            readAt(offsets[i % offsets.length], len, received);
+        }
+        assertArrayEquals(sent, received.toByteArray());
+    }
+
+    @Test
+    public void readsStraightFromTheDeviceWhenNothingIsBuffered() throws Exception {
+        // the receive thread never sees a byte: only a direct read of ours
+        // can get them.
+        port.close();
+        driver = new LoopbackDriver();
+        port = SerialPort.Init(new HiddenFromReceiveThread(driver), 115200);
+        port.enableReceiveTimeout(2000);
+        in = port.getInputStream();
+        byte[] sent = pattern(1000);
+        driver.inject(sent, 0, sent.length);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        while (received.size() < sent.length) {
+            readAt(0, 300, received);
+        }
+        assertArrayEquals(sent, received.toByteArray());
+        PortMetrics.Snapshot m = port.getMetrics();
+        assertEquals(sent.length, m.bytesIn);
+        assertEquals("bytes went through the input buffer", 0, m.inputHighWater);
+    }
+
+    /**
+     * A driver whose bytes are never returned to the receive thread.
+     */
+    private static class HiddenFromReceiveThread implements SerialDriver {
+
+        private final SerialDriver d;
+
+        HiddenFromReceiveThread(SerialDriver d) {
+            this.d = d;
+        }
+
+        @Override
+        public int read(byte[] b, int len) {
+            if ("serialReadThread".equals(Thread.currentThread().getName())) {
+                return 0;
+            }
+            return d.read(b, len);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return d.isConnected();
+        }
+
+        @Override
+        public int getStatus() {
+            return d.getStatus();
+        }
+
+        @Override
+        public int write(byte[] b, int len) {
+            return d.write(b, len);
+        }
+
+        @Override
+        public void configure(SerialPortConfig config) throws IOException {
+            d.configure(config);
+        }
+
+        @Override
+        public boolean setBaudRate(int baudRate) {
+            return d.setBaudRate(baudRate);
+        }
+
+        @Override
+        public String getName() {
+            return d.getName();
+        }
+
+        @Override
+        public void close() {
+            d.close();
+        }
+    }
+
+    @Test
+    public void readsFramesAtAnOffset() throws Exception {
+        byte[] sent = "first\nsecond line\nthird\n".getBytes();
+        driver.inject(sent, 0, sent.length);
+        port.enableReceiveFraming('\n');
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        int[] lines = {6, 12, 6};
+        for (int i = 0; i < lines.length; i++) {
+            // each read stops after the framing byte, wherever it starts.
+            assertEquals(lines[i], readAt(3 + i, 64, received));
+        }
+        assertArrayEquals(sent, received.toByteArray());
+    }
+}
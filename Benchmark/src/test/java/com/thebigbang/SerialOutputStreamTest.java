@@ -0,0 +1,101 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes of the port output stream, once warmed up, allocate nothing: the
+ * caller's array is handed to the driver as is, or copied into a buffer the
+ * stream keeps.
+ */
+public class SerialOutputStreamTest {
+
+    private static final int WRITES = 100000;
+    private SerialPort port;
+    private OutputStream out;
+    private final byte[] payload = new byte[64];
+
+    @Before
+    public void plug() {
+        port = SerialPort.Init(new LoopbackDriver(115200, 0, 0, 1), 115200);
+        // writes are dropped until a listener is added.
+        port.addEventListener(new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+            }
+        }, EventDelivery.IO_THREAD, SerialPortEvent.CONNECTION);
+        out = port.getOutputStream();
+    }
+
+    @After
+    public void unplug() {
+        port.close();
+    }
+
+    /**
+     * @return the bytes allocated by this thread for WRITES writes of len
+     * bytes at off, len 0 for write(int).
+     */
+    private long allocated(int off, int len) throws Exception {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long before = mx.getThreadAllocatedBytes(id);
+        for (int i = 0; i < WRITES; i++) {
+            if (len == 0) {
+                out.write(i);
+            } else {
+                out.write(payload, off, len);
+            }
+        }
+        return mx.getThreadAllocatedBytes(id) - before;
+    }
+
+    private void assertNoAllocation(int off, int len) throws Exception {
+        // warm up first.
+        allocated(off, len);
+        allocated(off, len);
+        long bytes = allocated(off, len);
+        assertTrue(bytes + " bytes for " + WRITES + " writes at " + off, bytes < 1024);
+        // and the writes did reach the driver.
+        assertEquals(3L * WRITES, port.getMetrics().framesOut);
+    }
+
+    @Test
+    public void writesFromTheStartAllocateNothing() throws Exception {
+        assertNoAllocation(0, 48);
+    }
+
+    @Test
+    public void writesAtAnOffsetAllocateNothing() throws Exception {
+        assertNoAllocation(13, 48);
+    }
+
+    @Test
+    public void singleWritesAllocateNothing() throws Exception {
+        assertNoAllocation(0, 0);
+    }
+}
@@ -37,8 +37,7 @@ public class SerialPortDemo extends Activity {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.main);
 		//set configuration for the new serial port to open:
-		SerialPortConfig config = new SerialPortConfig();
-		config.baudRate = 19200;
+		SerialPortConfig config = SerialPortConfig.newBuilder().setBaudRate(19200).build();
 		//initialize the new serial port. Give a try to AutomaticInit in case you have no idea of the chip used for the adapter.
 		//but I would still advice to prefer the manufacturers specific one's (prolific and ftdevices)
 		serial = SerialPort.AutomaticInit(this, config, null, null);
@@ -72,7 +71,7 @@ public class SerialPortDemo extends Activity {
 			});
 		} catch (TooManyListenersException e) {
 			e.printStackTrace();
-			//for now only one listener instance is authorized, any more will throw that exception.
+			//not thrown anymore: any number of listeners can be added, see addEventListener(listener, executor, eventTypes...).
 		}
 		//now to write some data to the serial port you have to use:
 		try {
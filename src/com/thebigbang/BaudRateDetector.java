@@ -0,0 +1,312 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Finds the baud rate of a device sending data by itself: each rate is tried
+ * for a short window and what is received is checked. The first rate giving
+ * enough bytes, no framing or parity error, and data accepted by the
+ * {@link Validator} wins.
+ * <br/>
+ * Common rates are tried first. If none is a clear match, the rates that
+ * received something are tried again, fewest errors first, with longer
+ * windows, and the best one is kept.
+ * <br/>
+ * Errors are only counted on chips reporting them (FTDI), see
+ * {@link SerialDriver#getStatus()}. {@link LoopbackDriver#setRemoteBaudRate}
+ * simulates a device at an unknown rate.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class BaudRateDetector {
+
+    /**
+     * Tells whether bytes received at some rate look like what the device
+     * sends.
+     */
+    public interface Validator {
+
+        /**
+         * @param sample [] the bytes received
+         * @param len the number of bytes
+         * @return true if they look right
+         */
+        boolean isValid(byte sample[], int len);
+    }
+    /**
+     * Accepts text: at least 90% of printable ASCII, CR, LF or TAB.
+     */
+    public static final Validator PRINTABLE = new Validator() {
+        @Override
+        public boolean isValid(byte sample[], int len) {
+            int printable = 0;
+            for (int i = 0; i < len; i++) {
+                int c = sample[i] & 0xff;
+                if ((c >= 0x20 && c < 0x7f) || c == '\r' || c == '\n' || c == '\t') {
+                    printable++;
+                }
+            }
+            return len > 0 && printable * 10 >= len * 9;
+        }
+    };
+    /**
+     * Accepts anything, for binary protocols: only line errors count.
+     */
+    public static final Validator ANY = new Validator() {
+        @Override
+        public boolean isValid(byte sample[], int len) {
+            return true;
+        }
+    };
+    /**
+     * Tried first, most used first.
+     */
+    private static final int[] COMMON_RATES = {9600, 115200, 19200, 38400,
+        57600, 4800, 2400, 1200, 230400};
+    private final SerialPort port;
+    private Validator validator = PRINTABLE;
+    private int sampleSize = 32;
+    private long minWindow = 30000000L;
+    private long maxWindow = 400000000L;
+    private int[] rates = null;
+    /**
+     * Line errors seen during the last {@link #sample}.
+     */
+    private int sampleErrors;
+
+    /**
+     * @param port a port on which the device is already sending
+     */
+    public BaudRateDetector(SerialPort port) {
+        if (port == null) {
+            throw new NullPointerException();
+        }
+        this.port = port;
+    }
+
+    /**
+     * @param v checks the bytes received, {@link #PRINTABLE} by default
+     */
+    public BaudRateDetector setValidator(Validator v) {
+        if (v == null) {
+            throw new NullPointerException();
+        }
+        validator = v;
+        return this;
+    }
+
+    /**
+     * @param bytes the number of bytes to receive at a rate before judging
+     * it, 32 by default
+     */
+    public BaudRateDetector setSampleSize(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Invalid sample size: " + bytes);
+        }
+        sampleSize = bytes;
+        return this;
+    }
+
+    /**
+     * Set how long to listen at each rate. The window is the time the sample
+     * takes on the line, plus a margin, kept between min and max.
+     *
+     * @param minMillis shortest window, 30 by default: USB adapters hold
+     * bytes some milliseconds before sending them
+     * @param maxMillis longest window, 400 by default
+     */
+    public BaudRateDetector setWindow(long minMillis, long maxMillis) {
+        if (minMillis <= 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("Invalid window: " + minMillis + ", " + maxMillis);
+        }
+        minWindow = minMillis * 1000000L;
+        maxWindow = maxMillis * 1000000L;
+        return this;
+    }
+
+    /**
+     * @param r the rates to try, in this order. By default the common ones
+     * then every other standard rate.
+     */
+    public BaudRateDetector setRates(int... r) {
+        rates = r == null || r.length == 0 ? null : r.clone();
+        return this;
+    }
+
+    /**
+     * Look for the rate. The port is left at the rate found, or back at its
+     * previous one if none was.
+     *
+     * @return the rate found, 0 if none.
+     * @throws IOException if the port failed
+     * @throws InterruptedException
+     */
+    public int detect() throws IOException, InterruptedException {
+        int previousRate = port.baudRate;
+        int events = port.getStatusEvents();
+        boolean monitoring = port.isMonitoring();
+        // a listener keeps the receive thread looking at the lines, the
+        // errors themselves are counted there, in step with the bytes.
+        SerialPortEventListener counter = new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+            }
+        };
+        port.setStatusEvents(events | SerialDriver.STATUS_FE | SerialDriver.STATUS_PE);
+        port.addEventListener(counter, EventDelivery.IO_THREAD,
+                SerialPortEvent.FE, SerialPortEvent.PE);
+        try {
+            int[] order = order();
+            byte[] sample = new byte[sampleSize];
+            int[] received = new int[order.length];
+            int[] errorCount = new int[order.length];
+            boolean[] valid = new boolean[order.length];
+            for (int i = 0; i < order.length; i++) {
+                received[i] = sample(order[i], window(order[i], 1), sample);
+                errorCount[i] = sampleErrors;
+                valid[i] = received[i] > 0 && validator.isValid(sample, received[i]);
+                if (received[i] == sampleSize && errorCount[i] == 0 && valid[i]) {
+                    return order[i];
+                }
+            }
+            // no clear winner: listen longer where something came, fewest
+            // errors first.
+            Integer[] ranked = new Integer[order.length];
+            for (int i = 0; i < order.length; i++) {
+                ranked[i] = i;
+            }
+            final int[] e = errorCount;
+            Arrays.sort(ranked, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return e[a] - e[b];
+                }
+            });
+            int best = -1;
+            for (int i : ranked) {
+                if (received[i] == 0) {
+                    continue;
+                }
+                int n = sample(order[i], window(order[i], 4), sample);
+                int err = sampleErrors;
+                boolean ok = n > 0 && validator.isValid(sample, n);
+                if (n == sampleSize && err == 0 && ok) {
+                    return order[i];
+                }
+                if (ok && (best < 0 || err < errorCount[best])) {
+                    best = i;
+                    errorCount[i] = err;
+                }
+            }
+            if (best >= 0 && port.setBaudRate(order[best])) {
+                return order[best];
+            }
+            port.setBaudRate(previousRate);
+            return 0;
+        } finally {
+            port.removeEventListener(counter);
+            port.setStatusEvents(events);
+            if (!monitoring) {
+                // our listener started the monitor thread, which also lets
+                // writes through: leave the port as we found it.
+                port.stopMonitoring();
+            }
+        }
+    }
+
+    /**
+     * @return the rates to try, in order.
+     */
+    private int[] order() {
+        if (rates != null) {
+            return rates;
+        }
+        int[] all = SerialPortConfig.standardRates();
+        int[] r = new int[all.length];
+        int n = 0;
+        for (int c : COMMON_RATES) {
+            r[n++] = c;
+        }
+        for (int a : all) {
+            boolean common = false;
+            for (int c : COMMON_RATES) {
+                common |= c == a;
+            }
+            if (!common) {
+                r[n++] = a;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @return how long to listen at rate, in nanoseconds.
+     */
+    private long window(int rate, int factor) {
+        // 10 bits per byte: 8N1, the usual setting of such devices.
+        long w = 5L * sampleSize * 10 * 1000000000L / rate / 4 + minWindow;
+        return Math.min(w, maxWindow) * factor;
+    }
+
+    /**
+     * Switch to rate, forget what was received before, and receive up to
+     * sample.length bytes for at most window nanoseconds. Gives up on the
+     * first line error: the rate is wrong, no need to wait more.
+     *
+     * @return the number of bytes received, 0 if the rate could not be set.
+     */
+    private int sample(int rate, long window, byte sample[])
+            throws IOException, InterruptedException {
+        sampleErrors = 0;
+        if (!port.setBaudRate(rate)) {
+            return 0;
+        }
+        InputStream in = port.getInputStream();
+        port.discardInput();
+        int errors = port.lineErrors();
+        long deadline = System.nanoTime() + window;
+        int n = 0;
+        int a;
+        while (n < sample.length && port.lineErrors() == errors) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                break;
+            }
+            a = port.awaitInput(left);
+            if (a < 0) {
+                throw new IOException("Port closed");
+            }
+            if (a == 0) {
+                continue;
+            }
+            int r = in.read(sample, n, Math.min(a, sample.length - n));
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        sampleErrors = port.lineErrors() - errors;
+        return n;
+    }
+}
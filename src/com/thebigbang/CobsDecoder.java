@@ -0,0 +1,163 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+/**
+ * {@link FrameDecoder} for COBS (Consistent Overhead Byte Stuffing) encoded
+ * frames, each one followed by a 0x00.
+ * <br/>
+ * Frames without any zero byte (a single COBS block) that arrive in one
+ * piece are passed to the listener without a copy. A truncated block or a
+ * frame longer than the maximum size drops the frame, decoding starts again
+ * after the next 0x00.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class CobsDecoder implements FrameDecoder {
+
+    private final byte[] frame;
+    private int count = 0;
+    /**
+     * bytes left to copy in the current block, 0 when expecting a code byte.
+     */
+    private int remaining = 0;
+    /**
+     * a zero has to be added before the next block.
+     */
+    private boolean pendingZero = false;
+    /**
+     * true once the first code byte of a frame was read.
+     */
+    private boolean started = false;
+    private boolean discarding = false;
+    private long dropped = 0;
+
+    /**
+     * @param maxFrameSize the longest decoded frame accepted
+     */
+    public CobsDecoder(int maxFrameSize) {
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("Invalid frame size: " + maxFrameSize);
+        }
+        frame = new byte[maxFrameSize];
+    }
+
+    @Override
+    public void decode(byte b[], int off, int len, FrameListener listener) {
+        int i = off;
+        int end = off + len;
+        while (i < end) {
+            byte c = b[i];
+            if (c == 0) {
+                // end of frame.
+                if (!discarding && started) {
+                    if (remaining > 0) {
+                        // truncated block.
+                        dropped++;
+                    } else {
+                        listener.onFrame(frame, 0, count);
+                    }
+                }
+                reset();
+                i++;
+                continue;
+            }
+            if (discarding) {
+                i++;
+                continue;
+            }
+            if (remaining == 0) {
+                int code = c & 0xff;
+                i++;
+                started = true;
+                if (count == 0 && !pendingZero && code > 1 && i + code - 1 < end
+                        && b[i + code - 1] == 0 && code - 1 <= frame.length
+                        && noZero(b, i, code - 1)) {
+                    // the whole frame is one block, here: no copy.
+                    listener.onFrame(b, i, code - 1);
+                    reset();
+                    i += code;
+                    continue;
+                }
+                if (pendingZero) {
+                    if (!append(b, i, 0, true)) {
+                        continue;
+                    }
+                }
+                remaining = code - 1;
+                pendingZero = code < 0xff;
+                continue;
+            }
+            // copy the block, up to the first zero or the end of the data.
+            int n = 0;
+            int limit = Math.min(remaining, end - i);
+            while (n < limit && b[i + n] != 0) {
+                n++;
+            }
+            if (append(b, i, n, false)) {
+                remaining -= n;
+            }
+            i += n;
+        }
+    }
+
+    private static boolean noZero(byte b[], int off, int len) {
+        for (int k = off; k < off + len; k++) {
+            if (b[k] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add len bytes of b, or a single zero.
+     *
+     * @return false if the frame became too long and was dropped.
+     */
+    private boolean append(byte b[], int off, int len, boolean zero) {
+        int n = zero ? 1 : len;
+        if (count + n > frame.length) {
+            dropped++;
+            discarding = true;
+            return false;
+        }
+        if (zero) {
+            frame[count++] = 0;
+        } else {
+            System.arraycopy(b, off, frame, count, len);
+            count += len;
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+        remaining = 0;
+        pendingZero = false;
+        started = false;
+        discarding = false;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return dropped;
+    }
+}
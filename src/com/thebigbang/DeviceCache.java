@@ -0,0 +1,180 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.util.Log;
+import com.ftdi.j2xx.D2xxManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import tw.com.prolific.driver.pl2303.PL2303Driver;
+
+/**
+ * The device {@link SerialPort#AutomaticInit} opened last time, kept in a
+ * small file of the application so the next start can try it first instead
+ * of scanning for every kind of chip.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+final class DeviceCache {
+
+    private static final String Tag = "DeviceCache";
+    private static final String FILE = "serialport_device.cache";
+    static final String FTDI = "ftdi";
+    static final String PROLIFIC = "prolific";
+    /**
+     * {@link #FTDI} or {@link #PROLIFIC}.
+     */
+    final String chip;
+    final int vid;
+    final int pid;
+    /**
+     * null if the chip has none.
+     */
+    final String serialNumber;
+    final SerialPortConfig config;
+
+    DeviceCache(String chip, int vid, int pid, String serialNumber, SerialPortConfig config) {
+        this.chip = chip;
+        this.vid = vid;
+        this.pid = pid;
+        this.serialNumber = serialNumber;
+        this.config = config;
+    }
+
+    /**
+     * @return the entry describing the device behind d, null if it is not an
+     * FTDI or Prolific one.
+     */
+    static DeviceCache of(SerialDriver d, SerialPortConfig config) {
+        if (d instanceof FtdiDriver) {
+            D2xxManager.FtDeviceInfoListNode info = ((FtdiDriver) d).getDevice().getDeviceInfo();
+            if (info == null) {
+                return null;
+            }
+            return new DeviceCache(FTDI, (info.id >>> 16) & 0xffff, info.id & 0xffff,
+                    info.serialNumber, config);
+        }
+        if (d instanceof ProlificDriver) {
+            UsbDevice u = PL2303Driver.sDevice;
+            return new DeviceCache(PROLIFIC, u != null ? u.getVendorId() : 0,
+                    u != null ? u.getProductId() : 0, null, config);
+        }
+        return null;
+    }
+
+    /**
+     * @return what was saved last time, null if nothing usable was.
+     */
+    static DeviceCache load(Context ctx) {
+        File f = new File(ctx.getFilesDir(), FILE);
+        if (!f.exists()) {
+            return null;
+        }
+        Properties p = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(f);
+            p.load(in);
+            String chip = p.getProperty("chip");
+            if (!FTDI.equals(chip) && !PROLIFIC.equals(chip)) {
+                return null;
+            }
+            SerialPortConfig c = SerialPortConfig.newBuilder()
+                    .setBaudRate(Integer.parseInt(p.getProperty("baudRate")))
+                    .setDataBits(Integer.parseInt(p.getProperty("dataBits")))
+                    .setStopBits(Integer.parseInt(p.getProperty("stopBits")))
+                    .setParity(Integer.parseInt(p.getProperty("parity")))
+                    .setFlowControl(Integer.parseInt(p.getProperty("flowCtrlSetting")))
+                    .build();
+            return new DeviceCache(chip,
+                    Integer.parseInt(p.getProperty("vid")),
+                    Integer.parseInt(p.getProperty("pid")),
+                    p.getProperty("serialNumber"), c);
+        } catch (IOException ex) {
+            Log.w(Tag, "could not read " + f, ex);
+        } catch (RuntimeException ex) {
+            // missing or malformed value: a full scan will rewrite it.
+            Log.w(Tag, "ignoring bad " + f, ex);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Save this entry, unless it is the same as the one already saved.
+     */
+    void save(Context ctx, DeviceCache previous) {
+        if (sameAs(previous)) {
+            return;
+        }
+        Properties p = new Properties();
+        p.setProperty("chip", chip);
+        p.setProperty("vid", Integer.toString(vid));
+        p.setProperty("pid", Integer.toString(pid));
+        if (serialNumber != null) {
+            p.setProperty("serialNumber", serialNumber);
+        }
+        p.setProperty("baudRate", Integer.toString(config.baudRate));
+        p.setProperty("dataBits", Byte.toString(config.dataBits));
+        p.setProperty("stopBits", Byte.toString(config.stopBits));
+        p.setProperty("parity", Byte.toString(config.parity));
+        p.setProperty("flowCtrlSetting", Short.toString(config.flowCtrlSetting));
+        File f = new File(ctx.getFilesDir(), FILE);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(f);
+            p.store(out, null);
+        } catch (IOException ex) {
+            Log.w(Tag, "could not write " + f, ex);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget the saved device, the next start will scan for every chip.
+     */
+    static void clear(Context ctx) {
+        new File(ctx.getFilesDir(), FILE).delete();
+    }
+
+    private boolean sameAs(DeviceCache o) {
+        return o != null && chip.equals(o.chip) && vid == o.vid && pid == o.pid
+                && (serialNumber == null ? o.serialNumber == null : serialNumber.equals(o.serialNumber))
+                && config.equals(o.config);
+    }
+}
@@ -0,0 +1,313 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import android.util.Log;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Listeners of a {@link SerialPort}, each one with the event types it wants
+ * and where to call it.
+ * <br/>
+ * The registry is copy on write: adding or removing a listener builds a new
+ * array, dispatching just reads the current one without any lock.
+ * <br/>
+ * With pooling on, events are counted out to the listeners and go back to a
+ * small pool after the last one returned, so a busy port raises events
+ * without creating any.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+final class EventBus {
+
+    private static final String Tag = "SerialPortLib";
+    /**
+     * Every event type, as a mask of (1 &lt;&lt; type).
+     */
+    static final int ALL_EVENTS = 0xffe;
+    /**
+     * Events kept for reuse when pooling is on. Few are enough: an event
+     * goes back as soon as its listeners are done with it.
+     */
+    static final int POOL_SIZE = 16;
+
+    private final class Subscription implements Runnable {
+
+        final SerialPortEventListener listener;
+        final int mask;
+        final Executor executor;
+        /**
+         * a DATA_AVAILABLE event is waiting in the executor.
+         */
+        final AtomicBoolean dataQueued = new AtomicBoolean();
+        /**
+         * that event. There is at most one, so this subscription is the
+         * task delivering it: nothing is created per event.
+         */
+        private SerialPortEvent dataEvent;
+
+        Subscription(SerialPortEventListener l, int m, Executor e) {
+            listener = l;
+            mask = m;
+            executor = e;
+        }
+
+        @Override
+        public void run() {
+            SerialPortEvent ev = dataEvent;
+            dataEvent = null;
+            // bytes arriving from now on need a new event.
+            dataQueued.set(false);
+            SerialPortEvent now = current(ev);
+            deliver(listener, now);
+            if (now != ev) {
+                recycle(now);
+            }
+            recycle(ev);
+        }
+    }
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    /**
+     * null when pooling is off.
+     */
+    private volatile ArrayBlockingQueue<SerialPortEvent> pool = null;
+    private final PortMetrics metrics;
+    /**
+     * Where the bytes told by DATA_AVAILABLE events wait, null to keep the
+     * count the events were raised with.
+     */
+    private final RingBuffer input;
+
+    /**
+     * @param metrics where to record how late events are delivered
+     */
+    EventBus(PortMetrics metrics) {
+        this(metrics, null);
+    }
+
+    /**
+     * @param metrics where to record how late events are delivered
+     * @param input the input buffer of the port
+     */
+    EventBus(PortMetrics metrics, RingBuffer input) {
+        this.metrics = metrics;
+        this.input = input;
+    }
+    /**
+     * union of the masks of every listener.
+     */
+    private volatile int wanted = 0;
+
+    /**
+     * @param types the {@link SerialPortEvent} types
+     * @return the mask of the given types, {@link #ALL_EVENTS} if none.
+     */
+    static int mask(int... types) {
+        if (types == null || types.length == 0) {
+            return ALL_EVENTS;
+        }
+        int m = 0;
+        for (int t : types) {
+            if (t < SerialPortEvent.DATA_AVAILABLE || t > SerialPortEvent.CONNECTION) {
+                throw new IllegalArgumentException("Unknown event type: " + t);
+            }
+            m |= 1 << t;
+        }
+        return m;
+    }
+
+    synchronized void add(SerialPortEventListener l, int mask, Executor e) {
+        if (l == null || e == null) {
+            throw new NullPointerException();
+        }
+        Subscription[] s = new Subscription[subscriptions.length + 1];
+        System.arraycopy(subscriptions, 0, s, 0, subscriptions.length);
+        s[subscriptions.length] = new Subscription(l, mask, e);
+        subscriptions = s;
+        wanted |= mask;
+    }
+
+    /**
+     * Remove every subscription of the listener.
+     *
+     * @return true if it was subscribed.
+     */
+    synchronized boolean remove(SerialPortEventListener l) {
+        int kept = 0;
+        for (Subscription s : subscriptions) {
+            if (s.listener != l) {
+                kept++;
+            }
+        }
+        if (kept == subscriptions.length) {
+            return false;
+        }
+        Subscription[] n = new Subscription[kept];
+        int m = 0;
+        int i = 0;
+        for (Subscription s : subscriptions) {
+            if (s.listener != l) {
+                n[i++] = s;
+                m |= s.mask;
+            }
+        }
+        subscriptions = n;
+        wanted = m;
+        return true;
+    }
+
+    int size() {
+        return subscriptions.length;
+    }
+
+    synchronized void clear() {
+        subscriptions = new Subscription[0];
+        wanted = 0;
+    }
+
+    /**
+     * @param on true to reuse events, see
+     * {@link SerialPort#setEventPooling(boolean)}
+     */
+    void setPooling(boolean on) {
+        if (on == (pool != null)) {
+            return;
+        }
+        pool = on ? new ArrayBlockingQueue<SerialPortEvent>(POOL_SIZE) : null;
+    }
+
+    boolean isPooling() {
+        return pool != null;
+    }
+
+    /**
+     * @return an event to dispatch, from the pool if pooling is on and it is
+     * not empty.
+     */
+    SerialPortEvent obtain(Object source, int type, boolean oldValue,
+            boolean newValue, int bytesAvailable, long timestamp) {
+        ArrayBlockingQueue<SerialPortEvent> p = pool;
+        SerialPortEvent ev = p != null ? p.poll() : null;
+        if (ev == null) {
+            ev = new SerialPortEvent(source, type);
+            ev.pooled = p != null;
+        }
+        ev.set(type, oldValue, newValue, bytesAvailable, timestamp);
+        return ev;
+    }
+
+    /**
+     * One delivery of ev is done: give it back to the pool after the last.
+     */
+    private void recycle(SerialPortEvent ev) {
+        if (ev.release() && ev.pooled) {
+            ArrayBlockingQueue<SerialPortEvent> p = pool;
+            if (p != null) {
+                // full: let the garbage collector have it.
+                p.offer(ev);
+            }
+        }
+    }
+
+    /**
+     * A DATA_AVAILABLE event waited in an executor, and the bytes arrived
+     * meanwhile raised no other one for that listener: tell it what is
+     * there now.
+     *
+     * @return ev, or a new event with the bytes available now, retained.
+     */
+    private SerialPortEvent current(SerialPortEvent ev) {
+        if (input == null) {
+            return ev;
+        }
+        int a = input.available();
+        if (a == ev.getBytesAvailable()) {
+            return ev;
+        }
+        SerialPortEvent n = obtain(ev.getSource(), SerialPortEvent.DATA_AVAILABLE,
+                false, false, a, ev.getTimestamp());
+        n.retain();
+        return n;
+    }
+
+    /**
+     * @return true if at least one listener wants this event type.
+     */
+    boolean wants(int type) {
+        return (wanted & (1 << type)) != 0;
+    }
+
+    boolean isEmpty() {
+        return subscriptions.length == 0;
+    }
+
+    /**
+     * Hand the event to every listener subscribed to its type, each one on
+     * its executor.
+     * <br/>
+     * A DATA_AVAILABLE event is not queued for a listener which has not
+     * received the previous one yet: it will read the new bytes too, the
+     * one queued tells the bytes available when it is delivered.
+     */
+    void dispatch(final SerialPortEvent ev) {
+        int bit = 1 << ev.getEventType();
+        boolean data = ev.getEventType() == SerialPortEvent.DATA_AVAILABLE;
+        // ours, so the event does not go back to the pool before every
+        // listener was given it.
+        ev.retain();
+        for (final Subscription s : subscriptions) {
+            if ((s.mask & bit) == 0) {
+                continue;
+            }
+            if (s.executor == EventDelivery.IO_THREAD) {
+                deliver(s.listener, ev);
+            } else if (data) {
+                if (s.dataQueued.compareAndSet(false, true)) {
+                    ev.retain();
+                    s.dataEvent = ev;
+                    s.executor.execute(s);
+                }
+            } else {
+                ev.retain();
+                s.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(s.listener, ev);
+                        recycle(ev);
+                    }
+                });
+            }
+        }
+        recycle(ev);
+    }
+
+    /**
+     * A failing listener must not stop the others.
+     */
+    private void deliver(SerialPortEventListener l, SerialPortEvent ev) {
+        metrics.eventLatency.record(System.nanoTime() - ev.getTimestamp());
+        try {
+            l.serialEvent(ev);
+        } catch (RuntimeException ex) {
+            Log.e(Tag, "listener failed on event " + ev.getEventType(), ex);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.concurrent.Executor;
+
+/**
+ * Where a {@link SerialPortEventListener} can ask to be called, see
+ * {@link SerialPort#addEventListener(SerialPortEventListener, Executor, int[])}.
+ * Any other Executor works too.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class EventDelivery {
+
+    /**
+     * Call the listener directly on the thread of the port raising the
+     * event. The cheapest, but a slow listener delays every other one.
+     */
+    public static final Executor IO_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable r) {
+            r.run();
+        }
+    };
+    /**
+     * Call the listener on the shared background pool of the application.
+     */
+    public static final Executor BACKGROUND = AsyncTask.THREAD_POOL_EXECUTOR;
+    /**
+     * Call the listener on the main thread, the UI can be touched from it.
+     */
+    public static final Executor MAIN_THREAD = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable r) {
+            handler.post(r);
+        }
+    };
+
+    private EventDelivery() {
+    }
+}
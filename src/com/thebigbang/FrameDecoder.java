@@ -0,0 +1,54 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+/**
+ * Incremental decoder turning the received bytes into frames, whatever the
+ * way they were cut by the device: a frame can come in several pieces and a
+ * piece can hold several frames. Install one with
+ * {@link SerialPort#setFrameDecoder(FrameDecoder, FrameListener)}.
+ * <br/>
+ * Decoders keep state between calls and are not thread safe.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public interface FrameDecoder {
+
+    /**
+     * Feed received bytes, the complete frames are passed to the listener
+     * before returning.
+     *
+     * @param b [] the bytes received
+     * @param off the starting index
+     * @param len the number of bytes
+     * @param listener where to send the frames
+     */
+    void decode(byte b[], int off, int len, FrameListener listener);
+
+    /**
+     * Forget any partial frame.
+     */
+    void reset();
+
+    /**
+     * @return the number of frames dropped because they were corrupted or
+     * longer than the maximum frame size.
+     */
+    long getDroppedFrames();
+}
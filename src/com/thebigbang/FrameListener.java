@@ -0,0 +1,38 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+/**
+ * Receives the frames found by a {@link FrameDecoder}.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public interface FrameListener {
+
+    /**
+     * Called for every complete frame. The bytes may be a slice of the
+     * received data or of the decoder's own buffer: they are only valid
+     * during the call, copy them to keep them.
+     *
+     * @param b [] the array holding the frame
+     * @param off index of the first byte of the frame
+     * @param len length of the frame
+     */
+    void onFrame(byte b[], int off, int len);
+}
@@ -0,0 +1,84 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FrameListener} keeping a copy of every frame in a bounded queue, for
+ * applications reading frames from their own thread instead of being called
+ * back. Frames arriving while the queue is full are dropped.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class FrameQueue implements FrameListener {
+
+    private final BlockingQueue<byte[]> frames;
+    private volatile long dropped = 0;
+
+    /**
+     * @param capacity the number of frames kept until read
+     */
+    public FrameQueue(int capacity) {
+        frames = new ArrayBlockingQueue<byte[]>(capacity);
+    }
+
+    @Override
+    public void onFrame(byte b[], int off, int len) {
+        byte[] f = new byte[len];
+        System.arraycopy(b, off, f, 0, len);
+        if (!frames.offer(f)) {
+            dropped++;
+        }
+    }
+
+    /**
+     * @return the next frame, waiting for one if needed.
+     * @throws InterruptedException
+     */
+    public byte[] take() throws InterruptedException {
+        return frames.take();
+    }
+
+    /**
+     * @param timeout how long to wait
+     * @param unit unit of timeout
+     * @return the next frame, or null if none came in time.
+     * @throws InterruptedException
+     */
+    public byte[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return frames.poll(timeout, unit);
+    }
+
+    /**
+     * @return the number of frames waiting.
+     */
+    public int size() {
+        return frames.size();
+    }
+
+    /**
+     * @return the number of frames dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
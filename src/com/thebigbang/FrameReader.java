@@ -0,0 +1,237 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Split the bytes of a stream into frames ending with a delimiter of one or
+ * more bytes, like CRLF for NMEA sentences or "\r\n>" for AT modems.
+ * <br/>
+ * Bytes are read by blocks into an internal buffer allocated once, partial
+ * frames stay there until the rest arrives. The delimiter is searched 8
+ * bytes at a time: each long read from the buffer is xor-ed with the first
+ * delimiter byte repeated 8 times, and the classic "has a zero byte" bit
+ * trick tells in a few instructions if, and where, it is in there.
+ * <br/>
+ * A frame longer than the buffer is dropped up to the next delimiter, see
+ * {@link #getDroppedFrames()}.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class FrameReader {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private final InputStream in;
+    private byte[] delimiter;
+    private final byte[] buffer;
+    /**
+     * Little endian view of {@link #buffer}: the first byte in memory is the
+     * lowest byte of a long.
+     */
+    private final ByteBuffer words;
+    /**
+     * pending bytes are buffer[start] to buffer[end - 1].
+     */
+    private int start = 0;
+    private int end = 0;
+    /**
+     * bytes before this index are known not to start a delimiter.
+     */
+    private int scanned = 0;
+    /**
+     * true while dropping the rest of a frame too long for the buffer.
+     */
+    private boolean discarding = false;
+    private long droppedFrames = 0;
+
+    /**
+     * @param in where to read the bytes from
+     * @param delimiter [] the bytes ending each frame
+     * @param maxFrameSize the longest frame expected, delimiter included
+     */
+    public FrameReader(InputStream in, byte delimiter[], int maxFrameSize) {
+        if (in == null) {
+            throw new NullPointerException();
+        }
+        buffer = new byte[maxFrameSize];
+        words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+        this.in = in;
+        setDelimiter(delimiter);
+    }
+
+    /**
+     * Change the delimiter, bytes already buffered are kept.
+     *
+     * @param delimiter [] the bytes ending each frame
+     */
+    public void setDelimiter(byte delimiter[]) {
+        if (delimiter.length == 0 || delimiter.length >= buffer.length) {
+            throw new IllegalArgumentException("Invalid delimiter length: " + delimiter.length);
+        }
+        if (!Arrays.equals(delimiter, this.delimiter)) {
+            this.delimiter = delimiter.clone();
+            scanned = start;
+        }
+    }
+
+    /**
+     * Copy the next frame, delimiter included, into b. Waits as long as the
+     * underlying stream does.
+     *
+     * @param b [] destination
+     * @param off the starting index
+     * @param len the room available in b
+     * @return the frame length, 0 if the stream returned nothing (timeout),
+     * -1 at the end of the stream
+     * @throws IOException if the frame is longer than len. It stays buffered
+     * for a next call with more room.
+     */
+    public int readFrame(byte b[], int off, int len) throws IOException {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (true) {
+            int found = find();
+            if (found >= 0) {
+                int frameLength = found + delimiter.length - start;
+                if (discarding) {
+                    // end of a frame too long for us: resync after it.
+                    discarding = false;
+                    droppedFrames++;
+                    consume(frameLength);
+                    continue;
+                }
+                if (frameLength > len) {
+                    throw new IOException("Frame of " + frameLength + " bytes does not fit in " + len);
+                }
+                System.arraycopy(buffer, start, b, off, frameLength);
+                consume(frameLength);
+                return frameLength;
+            }
+            if (end == buffer.length) {
+                if (start == 0) {
+                    // no delimiter in a full buffer: drop what was scanned,
+                    // a partial delimiter at the end is kept.
+                    discarding = true;
+                    start = scanned;
+                }
+                compact();
+            }
+            int n = in.read(buffer, end, buffer.length - end);
+            if (n <= 0) {
+                return n;
+            }
+            end += n;
+        }
+    }
+
+    /**
+     * @return the number of frames dropped because they did not fit in the
+     * buffer.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return the number of bytes buffered and not returned yet.
+     */
+    public int available() {
+        return end - start;
+    }
+
+    private void consume(int n) {
+        start += n;
+        scanned = start;
+        if (start == end) {
+            start = 0;
+            end = 0;
+            scanned = 0;
+        }
+    }
+
+    private void compact() {
+        if (start == 0) {
+            return;
+        }
+        System.arraycopy(buffer, start, buffer, 0, end - start);
+        end -= start;
+        scanned -= start;
+        start = 0;
+    }
+
+    /**
+     * @return the index of the first complete delimiter in the pending bytes,
+     * -1 if there is none yet.
+     */
+    private int find() {
+        int i = scanned;
+        while (true) {
+            int p = indexOf(delimiter[0], i, end);
+            if (p < 0) {
+                scanned = end;
+                return -1;
+            }
+            if (p + delimiter.length > end) {
+                // maybe the beginning of a delimiter, wait for the rest.
+                scanned = p;
+                return -1;
+            }
+            int k = 1;
+            while (k < delimiter.length && buffer[p + k] == delimiter[k]) {
+                k++;
+            }
+            if (k == delimiter.length) {
+                scanned = p;
+                return p;
+            }
+            i = p + 1;
+        }
+    }
+
+    /**
+     * @return the index of the first byte equal to v in buffer[from] to
+     * buffer[to - 1], -1 if none.
+     */
+    private int indexOf(byte v, int from, int to) {
+        long pattern = (v & 0xffL) * ONES;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long x = words.getLong(i) ^ pattern;
+            // high bit set in every byte of x that is zero, the lowest one
+            // is exact.
+            long t = (x - ONES) & ~x & HIGHS;
+            if (t != 0) {
+                return i + (Long.numberOfTrailingZeros(t) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer[i] == v) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,132 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import com.ftdi.j2xx.D2xxManager;
+import com.ftdi.j2xx.FT_Device;
+import java.io.IOException;
+
+/**
+ * {@link SerialDriver} for FTDI chips, over the d2xx driver.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class FtdiDriver implements SerialDriver {
+
+    private final FT_Device device;
+
+    public FtdiDriver(FT_Device d) {
+        if (d == null) {
+            throw new NullPointerException();
+        }
+        device = d;
+    }
+
+    /**
+     * @return the wrapped d2xx device.
+     */
+    public FT_Device getDevice() {
+        return device;
+    }
+
+    @Override
+    public int read(byte b[], int len) {
+        int a = device.getQueueStatus();
+        if (a <= 0) {
+            return 0;
+        }
+        return device.read(b, Math.min(a, len));
+    }
+
+    /**
+     * The d2xx driver closes the device when it is unplugged.
+     */
+    @Override
+    public boolean isConnected() {
+        return device.isOpen();
+    }
+
+    /**
+     * The d2xx driver keeps the status sent by the chip in front of every
+     * USB packet, reading it costs nothing.
+     */
+    @Override
+    public int getStatus() {
+        short m = device.getModemStatus();
+        short l = device.getLineStatus();
+        if (m < 0 || l < 0) {
+            return STATUS_UNSUPPORTED;
+        }
+        int s = 0;
+        if ((m & D2xxManager.FT_CTS) != 0) {
+            s |= STATUS_CTS;
+        }
+        if ((m & D2xxManager.FT_DSR) != 0) {
+            s |= STATUS_DSR;
+        }
+        if ((m & D2xxManager.FT_RI) != 0) {
+            s |= STATUS_RI;
+        }
+        if ((m & (D2xxManager.FT_DCD & 0xff)) != 0) {
+            s |= STATUS_CD;
+        }
+        if ((l & D2xxManager.FT_OE) != 0) {
+            s |= STATUS_OE;
+        }
+        if ((l & D2xxManager.FT_PE) != 0) {
+            s |= STATUS_PE;
+        }
+        if ((l & D2xxManager.FT_FE) != 0) {
+            s |= STATUS_FE;
+        }
+        if ((l & D2xxManager.FT_BI) != 0) {
+            s |= STATUS_BI;
+        }
+        return s;
+    }
+
+    @Override
+    public int write(byte b[], int len) {
+        return device.write(b, len);
+    }
+
+    @Override
+    public void configure(SerialPortConfig config) throws IOException {
+        if (!device.setBaudRate(config.baudRate)
+                || !device.setDataCharacteristics(config.dataBits, config.getFtdiStopBits(), config.parity)
+                || !device.setFlowControl(config.flowCtrlSetting, (byte) 0x0b, (byte) 0x0c)) {
+            throw new IOException("FTDI device refused the configuration");
+        }
+    }
+
+    @Override
+    public boolean setBaudRate(int baudRate) {
+        return device.setBaudRate(baudRate);
+    }
+
+    @Override
+    public String getName() {
+        return device.getDeviceInfo().location + "";
+    }
+
+    @Override
+    public void close() {
+        device.close();
+    }
+}
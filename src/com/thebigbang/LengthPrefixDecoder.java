@@ -0,0 +1,140 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+/**
+ * {@link FrameDecoder} for frames starting with their length, on 1, 2 or 4
+ * bytes. Only the payload is passed to the listener.
+ * <br/>
+ * A length above the maximum frame size is taken as corruption: the first
+ * byte of the header is dropped and the next one is tried as the start of
+ * a frame, until a plausible header is found.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class LengthPrefixDecoder implements FrameDecoder {
+
+    private final int headerSize;
+    private final boolean bigEndian;
+    private final int maxFrameSize;
+    private final byte[] header;
+    private int headerCount = 0;
+    /**
+     * payload length of the current frame, -1 while reading its header.
+     */
+    private int length = -1;
+    private final byte[] frame;
+    private int count = 0;
+    /**
+     * true while sliding over bytes looking for a plausible header.
+     */
+    private boolean resyncing = false;
+    private long dropped = 0;
+
+    /**
+     * @param headerSize size of the length field: 1, 2 or 4 bytes
+     * @param bigEndian true if the most significant byte comes first
+     * @param maxFrameSize the longest payload accepted
+     */
+    public LengthPrefixDecoder(int headerSize, boolean bigEndian, int maxFrameSize) {
+        if (headerSize != 1 && headerSize != 2 && headerSize != 4) {
+            throw new IllegalArgumentException("Invalid header size: " + headerSize);
+        }
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("Invalid frame size: " + maxFrameSize);
+        }
+        this.headerSize = headerSize;
+        this.bigEndian = bigEndian;
+        this.maxFrameSize = maxFrameSize;
+        header = new byte[headerSize];
+        frame = new byte[maxFrameSize];
+    }
+
+    @Override
+    public void decode(byte b[], int off, int len, FrameListener listener) {
+        int i = off;
+        int end = off + len;
+        while (i < end) {
+            if (length < 0) {
+                header[headerCount++] = b[i++];
+                if (headerCount < headerSize) {
+                    continue;
+                }
+                int l = headerLength();
+                if (l < 0 || l > maxFrameSize) {
+                    // lost sync: slide one byte. The frame is lost once,
+                    // whatever the number of bytes slid.
+                    if (!resyncing) {
+                        resyncing = true;
+                        dropped++;
+                    }
+                    System.arraycopy(header, 1, header, 0, headerSize - 1);
+                    headerCount--;
+                    continue;
+                }
+                headerCount = 0;
+                resyncing = false;
+                if (l == 0) {
+                    listener.onFrame(b, i, 0);
+                    continue;
+                }
+                length = l;
+                count = 0;
+            }
+            int n = Math.min(length - count, end - i);
+            if (count == 0 && n == length) {
+                // the whole payload is here, no copy.
+                listener.onFrame(b, i, n);
+            } else {
+                System.arraycopy(b, i, frame, count, n);
+                count += n;
+                if (count == length) {
+                    listener.onFrame(frame, 0, length);
+                }
+            }
+            i += n;
+            if (count == length || (count == 0 && n == length)) {
+                length = -1;
+                count = 0;
+            }
+        }
+    }
+
+    private int headerLength() {
+        int l = 0;
+        for (int k = 0; k < headerSize; k++) {
+            int v = header[bigEndian ? k : headerSize - 1 - k] & 0xff;
+            l = (l << 8) | v;
+        }
+        return l;
+    }
+
+    @Override
+    public void reset() {
+        headerCount = 0;
+        length = -1;
+        count = 0;
+        resyncing = false;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return dropped;
+    }
+}
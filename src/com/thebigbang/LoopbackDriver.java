@@ -0,0 +1,391 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link SerialDriver} simulating a device in memory, with no USB hardware:
+ * every byte written comes back to be read, as with a loopback plug on the
+ * connector. Bytes can also be {@link #inject(byte[], int, int) injected} as
+ * if the remote end sent them.
+ * <br/>
+ * The line is modelled closely enough to benchmark and stress the library on
+ * a desktop JVM: bytes travel one after the other at the configured baud
+ * rate, arrive after a fixed latency, and some can be lost at random.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class LoopbackDriver implements SerialDriver {
+
+    /**
+     * Bytes on the line, in order.
+     */
+    private final RingBuffer line;
+    /**
+     * Runs of bytes sent back to back: start time of the first byte and
+     * number of bytes. A new run only starts after the line was idle, so
+     * these stay few.
+     */
+    private long[] runStart = new long[64];
+    private int[] runLength = new int[64];
+    private int runHead = 0;
+    private int runCount = 0;
+    /**
+     * bytes of the first run already given to read().
+     */
+    private int runRead = 0;
+    /**
+     * when the last byte put on the line will be fully transmitted.
+     */
+    private long lineFreeAt = 0;
+    private int baudRate;
+    private int bitsPerByte = 10;
+    private long byteTime;
+    private long latency = 0;
+    private double lossRate = 0;
+    private final Random random;
+    private long lost = 0;
+    private boolean closed = false;
+    private int status = 0;
+    private boolean connected = true;
+    /**
+     * true to make write() wait until its bytes are sent.
+     */
+    private boolean blockingWrite = false;
+    /**
+     * shortest time a write() takes, whatever its size.
+     */
+    private long transferTime = 0;
+    /**
+     * rate the remote end sends at, 0 for the same as ours.
+     */
+    private int remoteBaudRate = 0;
+    /**
+     * set when garbled bytes were read, until the next getStatus().
+     */
+    private boolean framingError = false;
+
+    /**
+     * Instant loopback: no pacing, no latency, no loss.
+     */
+    public LoopbackDriver() {
+        this(0, 0, 0, 0);
+    }
+
+    /**
+     * @param baudRate line speed, 0 for no pacing at all
+     * @param latencyNanos time between the end of a byte on the line and its
+     * availability to read()
+     * @param lossRate probability for each byte to be lost, from 0 to 1
+     * @param seed seed of the loss generator, to replay a run
+     */
+    public LoopbackDriver(int baudRate, long latencyNanos, double lossRate, long seed) {
+        line = new RingBuffer(1024 * 1024, RingBuffer.OverflowPolicy.DROP_NEWEST);
+        random = new Random(seed);
+        setLatency(latencyNanos);
+        setLossRate(lossRate);
+        setBaudRate(baudRate);
+    }
+
+    @Override
+    public synchronized int read(byte b[], int len) {
+        if (!connected) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        int n = 0;
+        while (runCount > 0 && n < len) {
+            int arrived = arrived(runHead, now);
+            int ready = Math.min(arrived - runRead, len - n);
+            if (ready <= 0) {
+                break;
+            }
+            n += line.read(b, n, ready);
+            runRead += ready;
+            if (runRead < runLength[runHead]) {
+                break;
+            }
+            runHead = (runHead + 1) % runStart.length;
+            runCount--;
+            runRead = 0;
+        }
+        if (n > 0 && remoteBaudRate != 0 && remoteBaudRate != baudRate) {
+            // sampled at the wrong rate: what comes out is noise.
+            for (int i = 0; i < n; i++) {
+                b[i] = (byte) random.nextInt(256);
+            }
+            framingError = true;
+        }
+        return n;
+    }
+
+    /**
+     * @return number of bytes of run r fully arrived at the given time.
+     */
+    private int arrived(int r, long now) {
+        if (byteTime == 0) {
+            return now - latency >= runStart[r] ? runLength[r] : 0;
+        }
+        long elapsed = now - latency - runStart[r];
+        if (elapsed < byteTime) {
+            return 0;
+        }
+        return (int) Math.min(runLength[r], elapsed / byteTime);
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return connected && !closed;
+    }
+
+    /**
+     * Simulate the device being unplugged (false) or plugged back (true).
+     * Nothing is received nor sent while unplugged.
+     */
+    public synchronized void setConnected(boolean c) {
+        connected = c;
+    }
+
+    @Override
+    public synchronized int getStatus() {
+        if (framingError) {
+            framingError = false;
+            return status | STATUS_FE;
+        }
+        return status;
+    }
+
+    /**
+     * Simulate a remote end sending at another rate than ours: bytes travel
+     * at its rate, and while it differs from ours every byte read is garbled
+     * and a framing error is reported.
+     *
+     * @param b the rate of the remote end, 0 (the default) for ours
+     */
+    public synchronized void setRemoteBaudRate(int b) {
+        if (b < 0) {
+            throw new IllegalArgumentException("Invalid baud rate: " + b);
+        }
+        remoteBaudRate = b;
+        updateByteTime();
+    }
+
+    /**
+     * Bytes travel at the rate of the sender, the remote end if it has its
+     * own.
+     */
+    private void updateByteTime() {
+        int b = remoteBaudRate != 0 ? remoteBaudRate : baudRate;
+        byteTime = b == 0 ? 0 : 1000000000L * bitsPerByte / b;
+    }
+
+    /**
+     * Simulate the modem lines and line errors reported by the device.
+     *
+     * @param s a mask of {@link SerialDriver} STATUS_* bits
+     */
+    public synchronized void setStatus(int s) {
+        status = s;
+    }
+
+    @Override
+    public int write(byte b[], int len) {
+        long done;
+        synchronized (this) {
+            if (!connected || closed) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            inject(b, 0, len);
+            done = now + transferTime;
+            if (blockingWrite) {
+                done = Math.max(done, lineFreeAt);
+            }
+        }
+        // outside of the monitor: the device can be read meanwhile.
+        long left;
+        while ((left = done - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(left);
+        }
+        return len;
+    }
+
+    /**
+     * Make write() return only once its bytes went through the line, as a
+     * real chip does when its transmit buffer is full. Off by default.
+     */
+    public synchronized void setBlockingWrite(boolean b) {
+        blockingWrite = b;
+    }
+
+    /**
+     * Put bytes on the line as if the remote end sent them.
+     *
+     * @param b [] the bytes
+     * @param off the starting index
+     * @param len the number of bytes
+     */
+    public synchronized void inject(byte b[], int off, int len) {
+        if (closed) {
+            return;
+        }
+        long now = System.nanoTime();
+        int i = off;
+        int end = off + len;
+        while (i < end) {
+            // longest run of bytes not lost.
+            int j = i;
+            while (j < end && (lossRate == 0 || random.nextDouble() >= lossRate)) {
+                j++;
+            }
+            int n = line.write(b, i, j - i);
+            addRun(now, n);
+            lost += (j - i) - n;
+            if (j < end) {
+                // that one is lost, but was on the wire.
+                lost++;
+                lineFreeAt = Math.max(now, lineFreeAt) + byteTime;
+                j++;
+            }
+            i = j;
+        }
+    }
+
+    private void addRun(long now, int n) {
+        if (n == 0) {
+            return;
+        }
+        long start = Math.max(now, lineFreeAt);
+        lineFreeAt = start + n * byteTime;
+        if (runCount > 0) {
+            int last = (runHead + runCount - 1) % runStart.length;
+            if (runStart[last] + runLength[last] * byteTime == start) {
+                // line was still busy: same run.
+                runLength[last] += n;
+                return;
+            }
+        }
+        if (runCount == runStart.length) {
+            long[] s = new long[runStart.length * 2];
+            int[] l = new int[s.length];
+            for (int k = 0; k < runCount; k++) {
+                s[k] = runStart[(runHead + k) % runStart.length];
+                l[k] = runLength[(runHead + k) % runStart.length];
+            }
+            runStart = s;
+            runLength = l;
+            runHead = 0;
+        }
+        int r = (runHead + runCount) % runStart.length;
+        runStart[r] = start;
+        runLength[r] = n;
+        runCount++;
+    }
+
+    /**
+     * @return bytes received and ready to be read.
+     */
+    public synchronized int available() {
+        long now = System.nanoTime();
+        int a = 0;
+        for (int k = 0; k < runCount; k++) {
+            int r = (runHead + k) % runStart.length;
+            int arrived = arrived(r, now);
+            a += k == 0 ? arrived - runRead : arrived;
+            if (arrived < runLength[r]) {
+                break;
+            }
+        }
+        return a;
+    }
+
+    @Override
+    public synchronized void configure(SerialPortConfig config) {
+        bitsPerByte = config.getBitsPerByte();
+        setBaudRate(config.baudRate);
+    }
+
+    @Override
+    public synchronized boolean setBaudRate(int b) {
+        if (b < 0) {
+            return false;
+        }
+        baudRate = b;
+        updateByteTime();
+        return true;
+    }
+
+    public synchronized int getBaudRate() {
+        return baudRate;
+    }
+
+    /**
+     * Make every write() take at least nanos, whatever its size, as a USB
+     * transfer does. 0 by default.
+     */
+    public synchronized void setTransferTime(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Invalid transfer time: " + nanos);
+        }
+        transferTime = nanos;
+    }
+
+    /**
+     * @param latencyNanos time between the end of a byte on the line and its
+     * availability to read()
+     */
+    public synchronized void setLatency(long latencyNanos) {
+        if (latencyNanos < 0) {
+            throw new IllegalArgumentException("Invalid latency: " + latencyNanos);
+        }
+        latency = latencyNanos;
+    }
+
+    /**
+     * @param rate probability for each byte to be lost, from 0 to 1
+     */
+    public synchronized void setLossRate(double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("Invalid loss rate: " + rate);
+        }
+        lossRate = rate;
+    }
+
+    /**
+     * @return the number of bytes lost so far.
+     */
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    @Override
+    public String getName() {
+        return "Loopback";
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        line.clear();
+        runCount = 0;
+        runRead = 0;
+    }
+}
@@ -0,0 +1,403 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records what one or more ports received and sent, with the time, to a
+ * file, see {@link SerialPort#setCapture(PortCapture, int)}. The file can be
+ * read back with {@link Reader} or fed to a port again with
+ * {@link ReplayDriver}.
+ * <br/>
+ * Recording only copies the bytes into a buffer in memory, a background
+ * thread appends it to the file. If the file can not keep up, records are
+ * dropped and counted ({@link #getDropped()}) rather than slowing the port
+ * down.
+ * <br/>
+ * File format, big endian: a header of "SPCAP", the version (1), two zero
+ * bytes and System.currentTimeMillis() when the file was created (8 bytes).
+ * Then records: direction (1 byte, {@link #RX} or {@link #TX}), port id (2
+ * bytes), System.nanoTime() (8 bytes), length (4 bytes) and the bytes. A
+ * file is only ever appended to, a new capture goes after the previous ones
+ * and starts with a {@link #SESSION} record: its nanoTime() has nothing to
+ * do with the ones before.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class PortCapture implements Closeable {
+
+    private static final String Tag = "PortCapture";
+    private static final byte[] MAGIC = {'S', 'P', 'C', 'A', 'P'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 15;
+    /**
+     * Longest time, in milliseconds, recorded bytes stay in memory.
+     */
+    private static final long FLUSH_INTERVAL = 200;
+    /**
+     * Bytes received by the port.
+     */
+    public static final int RX = 0;
+    /**
+     * Bytes sent by the port.
+     */
+    public static final int TX = 1;
+    /**
+     * Start of a capture appended to the file, port 0. Its 8 bytes are
+     * System.currentTimeMillis() at that time.
+     */
+    public static final int SESSION = 2;
+    private final FileChannel channel;
+    /**
+     * Records are added to filling. The writer thread writes full, then
+     * gives it back as spare. spare is null while the writer has it.
+     */
+    private ByteBuffer filling;
+    private ByteBuffer spare;
+    private ByteBuffer full = null;
+    private long dropped = 0;
+    private boolean closed = false;
+    private IOException failure = null;
+    private final Thread writer;
+
+    /**
+     * @param file created if needed, appended to otherwise
+     * @throws IOException if the file can not be opened or is not a capture
+     */
+    public PortCapture(File file) throws IOException {
+        this(file, 64 * 1024);
+    }
+
+    /**
+     * @param file created if needed, appended to otherwise
+     * @param bufferSize bytes kept in memory before writing, twice
+     * @throws IOException if the file can not be opened or is not a capture
+     */
+    public PortCapture(File file, int bufferSize) throws IOException {
+        if (bufferSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        if (file.length() > 0) {
+            // appending: make sure it is ours.
+            new Reader(file).close();
+        }
+        channel = new FileOutputStream(file, true).getChannel();
+        filling = ByteBuffer.allocateDirect(bufferSize);
+        spare = ByteBuffer.allocateDirect(bufferSize);
+        ByteBuffer h = ByteBuffer.allocate(Math.max(HEADER_SIZE, RECORD_HEADER_SIZE + 8));
+        if (channel.size() == 0) {
+            h.put(MAGIC).put((byte) VERSION).put((byte) 0).put((byte) 0)
+                    .putLong(System.currentTimeMillis());
+        } else {
+            h.put((byte) SESSION).putShort((short) 0).putLong(System.nanoTime())
+                    .putInt(8).putLong(System.currentTimeMillis());
+        }
+        h.flip();
+        while (h.hasRemaining()) {
+            channel.write(h);
+        }
+        writer = new Thread("serialCaptureThread") {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Add a record. Never waits for the file.
+     *
+     * @param port id of the port, 0 to 65535
+     * @param direction {@link #RX} or {@link #TX}
+     * @param timestamp System.nanoTime() when the bytes were received or
+     * sent
+     * @param b [] the bytes
+     * @param off the starting index
+     * @param len the number of bytes, cut into several records if longer
+     * than the buffer
+     */
+    public synchronized void record(int port, int direction, long timestamp,
+            byte b[], int off, int len) {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (closed || len == 0) {
+            return;
+        }
+        do {
+            int n = Math.min(len, filling.capacity() - RECORD_HEADER_SIZE);
+            if (filling.remaining() < RECORD_HEADER_SIZE + n) {
+                if (spare == null) {
+                    // the writer is late: lose this rather than wait.
+                    dropped++;
+                    return;
+                }
+                handOver();
+            }
+            filling.put((byte) direction).putShort((short) port)
+                    .putLong(timestamp).putInt(n).put(b, off, n);
+            off += n;
+            len -= n;
+        } while (len > 0);
+    }
+
+    /**
+     * Give filling to the writer thread and go on with spare.
+     */
+    private void handOver() {
+        full = filling;
+        filling = spare;
+        spare = null;
+        notifyAll();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            ByteBuffer b;
+            synchronized (this) {
+                if (full == null && !closed) {
+                    try {
+                        wait(FLUSH_INTERVAL);
+                    } catch (InterruptedException ex) {
+                        closed = true;
+                    }
+                }
+                if (closed) {
+                    // close() writes what is left.
+                    return;
+                }
+                if (full == null) {
+                    if (filling.position() == 0) {
+                        continue;
+                    }
+                    // nothing full yet: write what is there anyway.
+                    handOver();
+                }
+                b = full;
+                full = null;
+            }
+            b.flip();
+            try {
+                while (b.hasRemaining()) {
+                    channel.write(b);
+                }
+            } catch (IOException ex) {
+                Log.e(Tag, "capture write failed", ex);
+                synchronized (this) {
+                    failure = ex;
+                    closed = true;
+                }
+            }
+            b.clear();
+            synchronized (this) {
+                spare = b;
+            }
+        }
+    }
+
+    /**
+     * @return the number of records lost because the file could not keep up.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Write what is left and close the file. Records added later are
+     * ignored.
+     *
+     * @throws IOException if writing the capture failed at some point
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            synchronized (this) {
+                if (failure == null) {
+                    // the writer stops as soon as closed is set.
+                    if (full != null) {
+                        full.flip();
+                        while (full.hasRemaining()) {
+                            channel.write(full);
+                        }
+                    }
+                    filling.flip();
+                    while (filling.hasRemaining()) {
+                        channel.write(filling);
+                    }
+                }
+            }
+        } finally {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Reads a capture file, one record at a time.
+     */
+    public static final class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private final File file;
+        private final long startTime;
+        /**
+         * Bytes of the file left after the record header read last.
+         */
+        private long remaining;
+        private long size;
+        private int direction;
+        private int port;
+        private long timestamp;
+        private int length;
+        private byte[] data = new byte[4096];
+
+        /**
+         * @param file a capture
+         * @throws IOException if it can not be read or is not a capture
+         */
+        public Reader(File file) throws IOException {
+            this.file = file;
+            size = file.length();
+            remaining = size - HEADER_SIZE;
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                byte[] h = new byte[MAGIC.length];
+                in.readFully(h);
+                for (int i = 0; i < MAGIC.length; i++) {
+                    if (h[i] != MAGIC[i]) {
+                        throw new IOException("Not a capture: " + file);
+                    }
+                }
+                int v = in.readUnsignedByte();
+                if (v != VERSION) {
+                    throw new IOException("Unknown capture version " + v + ": " + file);
+                }
+                in.readShort();
+                startTime = in.readLong();
+            } catch (IOException ex) {
+                in.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * Move to the next record.
+         *
+         * @return false at the end of the file.
+         * @throws IOException if the record is longer than the rest of the
+         * file: not a capture or a corrupted one
+         */
+        public boolean next() throws IOException {
+            try {
+                direction = in.readUnsignedByte();
+                port = in.readUnsignedShort();
+                timestamp = in.readLong();
+                length = in.readInt();
+                remaining -= RECORD_HEADER_SIZE;
+                if (length > remaining) {
+                    // the capture may still be going on.
+                    long s = file.length();
+                    remaining += s - size;
+                    size = s;
+                }
+                if (length < 0 || length > remaining) {
+                    throw new IOException("Corrupted capture, record length " + length
+                            + " with " + remaining + " bytes left: " + file);
+                }
+                remaining -= length;
+                if (data.length < length) {
+                    data = new byte[length];
+                }
+                in.readFully(data, 0, length);
+                return true;
+            } catch (EOFException ex) {
+                // end, or a record header cut short when the capture stopped.
+                return false;
+            }
+        }
+
+        /**
+         * @return System.currentTimeMillis() when the file was created.
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * @return {@link PortCapture#RX}, {@link PortCapture#TX} or
+         * {@link PortCapture#SESSION}.
+         */
+        public int getDirection() {
+            return direction;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        /**
+         * @return System.nanoTime() when the bytes were received or sent.
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return the bytes of the record, from index 0. Only valid until the
+         * next call to {@link #next()}.
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
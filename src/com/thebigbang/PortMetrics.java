@@ -0,0 +1,286 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import android.util.Log;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of one {@link SerialPort}, always on, see
+ * {@link SerialPort#getMetrics()}.
+ * <br/>
+ * Recording is one or two atomic adds, without lock nor allocation: counters
+ * are spread over a few cells picked by thread so writers do not fight over
+ * a cache line (LongAdder needs API 24), histograms have fixed power of two
+ * buckets.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class PortMetrics {
+
+    /**
+     * Receives snapshots at a fixed rate, see
+     * {@link SerialPort#setMetricsReporter(Reporter, long)}.
+     */
+    public interface Reporter {
+
+        /**
+         * Called on the I/O thread of the port: keep it short.
+         */
+        void report(SerialPort port, Snapshot s);
+    }
+    /**
+     * Writes every snapshot to the Android log.
+     */
+    public static final Reporter LOG = new Reporter() {
+        @Override
+        public void report(SerialPort port, Snapshot s) {
+            Log.i("SerialPortMetrics", port.getName() + ": " + s);
+        }
+    };
+
+    /**
+     * Sum of a few cells, each thread adding to the one of its id.
+     */
+    static final class Counter {
+
+        private static final int STRIPES = 4;
+        /**
+         * cells are 8 longs apart, one cache line.
+         */
+        private static final int PAD = 8;
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+        void add(long x) {
+            cells.getAndAdd(((int) Thread.currentThread().getId() & (STRIPES - 1)) * PAD, x);
+        }
+
+        long get() {
+            long s = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                s += cells.get(i * PAD);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Durations in nanoseconds. Bucket i counts the values below 2^i and not
+     * below 2^(i-1), the last one everything longer than about 4 minutes.
+     */
+    static final class Histogram {
+
+        static final int BUCKETS = 40;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final Counter sum = new Counter();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            counts.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1));
+            sum.add(nanos);
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+            }
+        }
+
+        HistogramSnapshot snapshot() {
+            long[] c = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                c[i] = counts.get(i);
+            }
+            return new HistogramSnapshot(c, sum.get(), max.get());
+        }
+    }
+
+    /**
+     * Durations recorded until the snapshot, in nanoseconds.
+     */
+    public static final class HistogramSnapshot {
+
+        public final long count;
+        public final long sum;
+        public final long max;
+        private final long[] buckets;
+
+        HistogramSnapshot(long[] buckets, long sum, long max) {
+            long n = 0;
+            for (long b : buckets) {
+                n += b;
+            }
+            this.buckets = buckets;
+            this.count = n;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return the mean duration, 0 if none was recorded.
+         */
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * @param p from 0 to 100
+         * @return a duration at least p% of the recorded ones did not exceed,
+         * up to twice the exact value, 0 if none was recorded.
+         */
+        public long getPercentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * Math.min(Math.max(p, 0), 100) / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(i == 0 ? 0 : 1L << i, max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return count + " mean " + getMean() / 1000 + "us p99 "
+                    + getPercentile(99) / 1000 + "us max " + max / 1000 + "us";
+        }
+    }
+
+    /**
+     * What a port did since it was opened.
+     */
+    public static final class Snapshot {
+
+        /**
+         * System.nanoTime() when taken.
+         */
+        public final long timestamp;
+        public final long bytesIn;
+        public final long bytesOut;
+        /**
+         * Frames found by the frame decoder or read with a terminator from
+         * the input stream.
+         */
+        public final long framesIn;
+        /**
+         * Writes by the application, before batching.
+         */
+        public final long framesOut;
+        /**
+         * Received bytes lost because the input buffer was full.
+         */
+        public final long inputOverruns;
+        /**
+         * Overruns reported by the chip, counted while overrun or line status
+         * events are on.
+         */
+        public final long chipOverruns;
+        public final long disconnects;
+        public final long reconnects;
+        /**
+         * Most bytes ever waiting in the input buffer.
+         */
+        public final int inputHighWater;
+        /**
+         * Most bytes ever waiting to be given to the driver.
+         */
+        public final int outputHighWater;
+        /**
+         * Driver reads, empty polls included.
+         */
+        public final HistogramSnapshot driverReads;
+        public final HistogramSnapshot driverWrites;
+        /**
+         * From the reception of the bytes (DATA_AVAILABLE) or the detection
+         * of the change (other events) to the call of the listener.
+         */
+        public final HistogramSnapshot eventLatency;
+
+        Snapshot(PortMetrics m, long inputOverruns, int inputHighWater) {
+            timestamp = System.nanoTime();
+            bytesIn = m.bytesIn.get();
+            bytesOut = m.bytesOut.get();
+            framesIn = m.framesIn.get();
+            framesOut = m.framesOut.get();
+            this.inputOverruns = inputOverruns;
+            chipOverruns = m.chipOverruns.get();
+            disconnects = m.disconnects.get();
+            reconnects = m.reconnects.get();
+            this.inputHighWater = inputHighWater;
+            outputHighWater = (int) m.outputHighWater.get();
+            driverReads = m.driverReads.snapshot();
+            driverWrites = m.driverWrites.snapshot();
+            eventLatency = m.eventLatency.snapshot();
+        }
+
+        @Override
+        public String toString() {
+            return "in " + bytesIn + "B/" + framesIn + " frames, out " + bytesOut
+                    + "B/" + framesOut + " frames, overruns " + inputOverruns
+                    + "+" + chipOverruns + ", reconnects " + reconnects + "/"
+                    + disconnects + ", high water " + inputHighWater + "/"
+                    + outputHighWater + ", reads " + driverReads + ", writes "
+                    + driverWrites + ", events " + eventLatency;
+        }
+    }
+    final Counter bytesIn = new Counter();
+    final Counter bytesOut = new Counter();
+    final Counter framesIn = new Counter();
+    final Counter framesOut = new Counter();
+    final Counter chipOverruns = new Counter();
+    final Counter disconnects = new Counter();
+    final Counter reconnects = new Counter();
+    final AtomicLong outputHighWater = new AtomicLong();
+    final Histogram driverReads = new Histogram();
+    final Histogram driverWrites = new Histogram();
+    final Histogram eventLatency = new Histogram();
+
+    PortMetrics() {
+    }
+
+    /**
+     * A driver read returned n bytes after nanos.
+     */
+    void driverRead(long nanos, int n) {
+        driverReads.record(nanos);
+        if (n > 0) {
+            bytesIn.add(n);
+        }
+    }
+
+    void driverWrite(long nanos, int n) {
+        driverWrites.record(nanos);
+        bytesOut.add(n);
+    }
+
+    /**
+     * Bytes were added to the output queue, queued are now waiting.
+     */
+    void queued(int queued) {
+        long m;
+        while (queued > (m = outputHighWater.get())
+                && !outputHighWater.compareAndSet(m, queued)) {
+        }
+    }
+}
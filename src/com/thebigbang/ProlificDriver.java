@@ -0,0 +1,137 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import java.io.IOException;
+import tw.com.prolific.driver.pl2303.PL2303Driver;
+
+/**
+ * {@link SerialDriver} for Prolific PL2303 chips.
+ * <br/>
+ * The Prolific driver only configures the line all at once, the last
+ * configuration is kept to change the baud rate alone.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class ProlificDriver implements SerialDriver {
+
+    private final PL2303Driver device;
+    private SerialPortConfig config = SerialPortConfig.newBuilder().build();
+    /**
+     * Used by reads the driver can not do in place, see
+     * {@link #read(byte[], int)}.
+     */
+    private final byte[] staging = new byte[PL2303Driver.READBUF_SIZE];
+    /**
+     * Bytes of {@link #staging} read from the device but not returned yet,
+     * from stagingOff on.
+     */
+    private int stagingOff = 0;
+    private int stagingLen = 0;
+
+    public ProlificDriver(PL2303Driver d) {
+        if (d == null) {
+            throw new NullPointerException();
+        }
+        device = d;
+    }
+
+    /**
+     * @return the wrapped Prolific driver.
+     */
+    public PL2303Driver getDevice() {
+        return device;
+    }
+
+    /**
+     * The Prolific driver always fills the whole array, and swaps arrays
+     * longer than {@link PL2303Driver#READBUF_SIZE} for one of its own: other
+     * reads go through a buffer of ours. What did not fit in b is returned
+     * by the next reads.
+     */
+    @Override
+    public int read(byte b[], int len) {
+        if (stagingLen == 0) {
+            if (len == b.length && len <= PL2303Driver.READBUF_SIZE) {
+                return device.read(b);
+            }
+            int r = device.read(staging);
+            if (r <= 0) {
+                return r;
+            }
+            stagingOff = 0;
+            stagingLen = r;
+        }
+        int n = Math.min(len, stagingLen);
+        System.arraycopy(staging, stagingOff, b, 0, n);
+        stagingOff += n;
+        stagingLen -= n;
+        return n;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return device.isConnected();
+    }
+
+    /**
+     * The Prolific driver does not give access to the modem lines.
+     */
+    @Override
+    public int getStatus() {
+        return STATUS_UNSUPPORTED;
+    }
+
+    @Override
+    public int write(byte b[], int len) {
+        return device.write(b, len);
+    }
+
+    @Override
+    public void configure(SerialPortConfig c) throws IOException {
+        if (c.convertToProlificBaudRate() == null || c.convertToProlificParity() == null) {
+            throw new IOException("Prolific devices do not support " + c);
+        }
+        device.setup(c.convertToProlificBaudRate(), c.convertToProlificDataBits(), c.convertToProlificStopBits(), c.convertToProlificParity(), c.convertToProlificFlowControl());
+        config = c;
+    }
+
+    @Override
+    public boolean setBaudRate(int baudRate) {
+        if (baudRate <= 0) {
+            return false;
+        }
+        try {
+            configure(config.withBaudRate(baudRate));
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "Prolific Serial";
+    }
+
+    @Override
+    public void close() {
+        device.end();
+    }
+}
@@ -0,0 +1,200 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link SerialDriver} playing back what a port received, from a
+ * {@link PortCapture} file: the application sees the same bytes, cut the
+ * same way, at the original pace or as fast as it can read them. Handy to
+ * reproduce a field issue, or as a regression and load test.
+ * <br/>
+ * What is written to it is counted and thrown away.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class ReplayDriver implements SerialDriver {
+
+    private static final String Tag = "ReplayDriver";
+    private final File file;
+    private final PortCapture.Reader reader;
+    private final int port;
+    private final double speed;
+    /**
+     * bytes of the current record already given to read(), -1 when the next
+     * record must be loaded.
+     */
+    private int recordRead = -1;
+    /**
+     * capture time of the previous record.
+     */
+    private long lastTimestamp;
+    /**
+     * System.nanoTime() when the current record is due.
+     */
+    private long due;
+    private boolean started = false;
+    private boolean finished = false;
+    private boolean closed = false;
+    private long written = 0;
+
+    /**
+     * @param capture the file to play
+     * @param port the id of the port to play, -1 for every one
+     * @param speed 1 for the original pace, 2 for twice as fast..., 0 for as
+     * fast as possible
+     * @throws IOException if the file can not be read
+     */
+    public ReplayDriver(File capture, int port, double speed) throws IOException {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Invalid speed: " + speed);
+        }
+        file = capture;
+        reader = new PortCapture.Reader(capture);
+        this.port = port;
+        this.speed = speed;
+    }
+
+    @Override
+    public synchronized int read(byte b[], int len) {
+        long now = System.nanoTime();
+        int n = 0;
+        while (n < len && !closed) {
+            if (recordRead < 0 && !nextRecord(now)) {
+                break;
+            }
+            if (speed > 0 && now - due < 0) {
+                break;
+            }
+            int c = Math.min(reader.getLength() - recordRead, len - n);
+            System.arraycopy(reader.getData(), recordRead, b, n, c);
+            n += c;
+            recordRead += c;
+            if (recordRead == reader.getLength()) {
+                recordRead = -1;
+                if (speed > 0) {
+                    // as received: one chunk per read.
+                    break;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Load the next received record of our port and tell when it is due.
+     *
+     * @return false at the end of the capture.
+     */
+    private boolean nextRecord(long now) {
+        if (finished) {
+            return false;
+        }
+        try {
+            while (reader.next()) {
+                if (reader.getDirection() == PortCapture.SESSION) {
+                    // another capture, on another clock: its first record
+                    // comes right away.
+                    started = false;
+                    continue;
+                }
+                if (reader.getDirection() != PortCapture.RX
+                        || (port >= 0 && reader.getPort() != port)) {
+                    continue;
+                }
+                long t = reader.getTimestamp();
+                if (!started) {
+                    // first record: right now.
+                    started = true;
+                    due = now;
+                } else if (speed > 0 && t - lastTimestamp > 0) {
+                    // a gap going backwards is a capture appended before
+                    // SESSION records existed: no wait either.
+                    due += (long) ((t - lastTimestamp) / speed);
+                }
+                lastTimestamp = t;
+                recordRead = 0;
+                return true;
+            }
+        } catch (IOException ex) {
+            Log.e(Tag, "replay of " + file + " failed", ex);
+        }
+        finished = true;
+        return false;
+    }
+
+    /**
+     * @return true once every record was read.
+     */
+    public synchronized boolean isFinished() {
+        return finished && recordRead < 0;
+    }
+
+    /**
+     * @return the number of bytes written to this driver.
+     */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return !closed;
+    }
+
+    @Override
+    public int getStatus() {
+        return STATUS_UNSUPPORTED;
+    }
+
+    @Override
+    public synchronized int write(byte b[], int len) {
+        written += len;
+        return len;
+    }
+
+    @Override
+    public void configure(SerialPortConfig config) {
+    }
+
+    @Override
+    public boolean setBaudRate(int baudRate) {
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "Replay of " + file.getName();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            reader.close();
+        } catch (IOException ex) {
+        }
+    }
+}
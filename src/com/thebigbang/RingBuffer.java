@@ -0,0 +1,362 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size byte ring buffer sitting between the device and the reading
+ * application. The storage is allocated once, reading and writing are just
+ * array copies.
+ * <br/>
+ * One thread is expected to write (the receive thread of the
+ * {@link SerialPort}) and one or more to read.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class RingBuffer {
+
+    /**
+     * What to do when bytes arrive while the buffer is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Overwrite the oldest bytes not read yet.
+         */
+        DROP_OLDEST,
+        /**
+         * Throw away the incoming bytes.
+         */
+        DROP_NEWEST,
+        /**
+         * Make the writer wait until the reader made some room.
+         */
+        BLOCK
+    }
+    private byte[] buffer;
+    /**
+     * index of the next byte to read.
+     */
+    private int head = 0;
+    /**
+     * number of bytes waiting to be read.
+     */
+    private int count = 0;
+    private OverflowPolicy policy;
+    private long dropped = 0;
+    /**
+     * most bytes ever waiting to be read.
+     */
+    private int highWater = 0;
+    private boolean closed = false;
+
+    /**
+     * @param capacity size of the buffer in bytes
+     * @param policy what to do when the buffer is full
+     */
+    public RingBuffer(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        if (policy == null) {
+            throw new NullPointerException();
+        }
+        buffer = new byte[capacity];
+        this.policy = policy;
+    }
+
+    /**
+     * Store bytes in the buffer, applying the overflow policy if there is not
+     * enough room.
+     *
+     * @param b [] the bytes to store
+     * @param off the starting index
+     * @param len the number of bytes to store
+     * @return the number of bytes actually stored
+     */
+    public synchronized int write(byte b[], int off, int len) {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        int written = 0;
+        while (written < len && !closed) {
+            int free = buffer.length - count;
+            if (free == 0) {
+                if (policy == OverflowPolicy.DROP_NEWEST) {
+                    dropped += len - written;
+                    break;
+                } else if (policy == OverflowPolicy.DROP_OLDEST) {
+                    int drop = Math.min(len - written, buffer.length);
+                    head = (head + drop) % buffer.length;
+                    count -= drop;
+                    dropped += drop;
+                    continue;
+                } else {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    continue;
+                }
+            }
+            int n = Math.min(len - written, free);
+            int tail = (head + count) % buffer.length;
+            int first = Math.min(n, buffer.length - tail);
+            System.arraycopy(b, off + written, buffer, tail, first);
+            if (first < n) {
+                System.arraycopy(b, off + written + first, buffer, 0, n - first);
+            }
+            count += n;
+            written += n;
+        }
+        if (count > highWater) {
+            highWater = count;
+        }
+        if (written > 0) {
+            notifyAll();
+        }
+        return written;
+    }
+
+    /**
+     * Copy up to len bytes out of the buffer without waiting.
+     *
+     * @param b [] destination
+     * @param off the starting index in b
+     * @param len the maximum number of bytes to copy
+     * @return the number of bytes copied, 0 if the buffer is empty
+     */
+    public synchronized int read(byte b[], int off, int len) {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        int n = Math.min(len, count);
+        if (n == 0) {
+            return 0;
+        }
+        int first = Math.min(n, buffer.length - head);
+        System.arraycopy(buffer, head, b, off, first);
+        if (first < n) {
+            System.arraycopy(buffer, 0, b, off + first, n - first);
+        }
+        head = (head + n) % buffer.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    /**
+     * Copy up to len bytes out of the buffer without waiting, stopping after
+     * the first byte equal to delimiter.
+     *
+     * @param b [] destination
+     * @param off the starting index in b
+     * @param len the maximum number of bytes to copy
+     * @param delimiter the byte ending the copy, included in it
+     * @return the number of bytes copied, 0 if the buffer is empty
+     */
+    public synchronized int readUntil(byte b[], int off, int len, byte delimiter) {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        int max = Math.min(len, count);
+        int n = 0;
+        int i = head;
+        while (n < max) {
+            byte c = buffer[i];
+            b[off + n++] = c;
+            if (++i == buffer.length) {
+                i = 0;
+            }
+            if (c == delimiter) {
+                break;
+            }
+        }
+        if (n == 0) {
+            return 0;
+        }
+        head = i;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    /**
+     * Copy as many bytes as possible out of the buffer into dst without
+     * waiting. Works the same with heap and direct buffers.
+     *
+     * @param dst destination, its position is moved by the bytes copied
+     * @return the number of bytes copied, 0 if the buffer is empty
+     */
+    public synchronized int read(ByteBuffer dst) {
+        int n = Math.min(dst.remaining(), count);
+        if (n == 0) {
+            return 0;
+        }
+        int first = Math.min(n, buffer.length - head);
+        dst.put(buffer, head, first);
+        if (first < n) {
+            dst.put(buffer, 0, n - first);
+        }
+        head = (head + n) % buffer.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    /**
+     * @return the next byte (0 to 255) or -1 if the buffer is empty.
+     */
+    public synchronized int read() {
+        if (count == 0) {
+            return -1;
+        }
+        int r = buffer[head] & 0xff;
+        head = (head + 1) % buffer.length;
+        count--;
+        notifyAll();
+        return r;
+    }
+
+    /**
+     * Wait until at least one byte can be read or the buffer is closed.
+     *
+     * @return the number of bytes available
+     * @throws InterruptedException
+     */
+    public synchronized int await() throws InterruptedException {
+        while (count == 0 && !closed) {
+            wait();
+        }
+        return count;
+    }
+
+    /**
+     * Wait until at least one byte can be read, the buffer is closed or the
+     * timeout elapsed.
+     *
+     * @param timeoutNanos the longest time to wait
+     * @return the number of bytes available, 0 on timeout
+     * @throws InterruptedException
+     */
+    public synchronized int await(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        long left = timeoutNanos;
+        while (count == 0 && !closed && left > 0) {
+            wait(left / 1000000L, (int) (left % 1000000L));
+            left = deadline - System.nanoTime();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of bytes waiting to be read.
+     */
+    public synchronized int available() {
+        return count;
+    }
+
+    /**
+     * @return the size of the buffer in bytes.
+     */
+    public synchronized int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return the most bytes ever waiting to be read.
+     */
+    public synchronized int getHighWater() {
+        return highWater;
+    }
+
+    /**
+     * @return the number of bytes lost because the buffer was full.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    public synchronized void setOverflowPolicy(OverflowPolicy p) {
+        if (p == null) {
+            throw new NullPointerException();
+        }
+        policy = p;
+        notifyAll();
+    }
+
+    /**
+     * Change the size of the buffer, keeping the bytes not read yet. If they
+     * do not fit the oldest ones are dropped.
+     *
+     * @param capacity new size in bytes
+     */
+    public synchronized void resize(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        if (capacity == buffer.length) {
+            return;
+        }
+        byte[] n = new byte[capacity];
+        if (count > capacity) {
+            int drop = count - capacity;
+            head = (head + drop) % buffer.length;
+            count = capacity;
+            dropped += drop;
+        }
+        int kept = count;
+        int first = Math.min(kept, buffer.length - head);
+        System.arraycopy(buffer, head, n, 0, first);
+        if (first < kept) {
+            System.arraycopy(buffer, 0, n, first, kept - first);
+        }
+        buffer = n;
+        head = 0;
+        notifyAll();
+    }
+
+    /**
+     * Forget every byte not read yet.
+     */
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+        notifyAll();
+    }
+
+    /**
+     * Wake up every waiting thread, further writes are ignored.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,114 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import java.io.IOException;
+
+/**
+ * What {@link SerialPort} needs from a USB serial chip driver. Every chip
+ * gets its own implementation, {@link FtdiDriver} and {@link ProlificDriver}
+ * wrap the manufacturers' drivers and {@link LoopbackDriver} simulates a
+ * device in memory.
+ * <br/>
+ * {@link #read}, {@link #getStatus()} and {@link #isConnected()} are called
+ * with the receive lock of the port held, {@link #write} with its send lock:
+ * a read and a write may run at the same time on two threads. Every other
+ * call holds both locks.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public interface SerialDriver {
+
+    /**
+     * {@link #getStatus()} bits: modem lines.
+     */
+    int STATUS_CTS = 0x01;
+    int STATUS_DSR = 0x02;
+    int STATUS_RI = 0x04;
+    int STATUS_CD = 0x08;
+    /**
+     * {@link #getStatus()} bits: line errors.
+     */
+    int STATUS_OE = 0x10;
+    int STATUS_PE = 0x20;
+    int STATUS_FE = 0x40;
+    int STATUS_BI = 0x80;
+    /**
+     * {@link #getStatus()} result for chips not reporting their status.
+     */
+    int STATUS_UNSUPPORTED = -1;
+
+    /**
+     * Read the bytes the device received, without waiting.
+     *
+     * @param b [] destination, filled from index 0
+     * @param len the maximum number of bytes to read, no more than b.length
+     * @return the number of bytes read, 0 if nothing was received
+     */
+    int read(byte b[], int len);
+
+    /**
+     * @return false once the device was unplugged or closed.
+     */
+    boolean isConnected();
+
+    /**
+     * Current modem lines and line errors, as known by the driver. Called on
+     * each receive cycle: must not cost a USB transfer.
+     *
+     * @return a mask of STATUS_* bits, or {@link #STATUS_UNSUPPORTED}
+     */
+    int getStatus();
+
+    /**
+     * Send len bytes of b, starting at index 0.
+     *
+     * @param b [] the bytes to send
+     * @param len the number of bytes to send
+     * @return the number of bytes written
+     */
+    int write(byte b[], int len);
+
+    /**
+     * Apply the baud rate, data bits, stop bits, parity and flow control of
+     * the configuration.
+     *
+     * @param config the configuration to apply
+     * @throws IOException if the device refused it
+     */
+    void configure(SerialPortConfig config) throws IOException;
+
+    /**
+     * Change only the baud rate.
+     *
+     * @param baudRate the new rate
+     * @return false if the device refused it
+     */
+    boolean setBaudRate(int baudRate);
+
+    /**
+     * @return a human readable name for the device.
+     */
+    String getName();
+
+    /**
+     * Release the device.
+     */
+    void close();
+}
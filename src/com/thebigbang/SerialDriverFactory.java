@@ -0,0 +1,41 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import java.io.IOException;
+
+/**
+ * Opens the device behind a {@link SerialPort}, see
+ * {@link SerialPort#openAsync(SerialDriverFactory, SerialPortConfig)}. Called
+ * again by the port to reconnect after the device was unplugged.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public interface SerialDriverFactory {
+
+    /**
+     * Open the device and apply the configuration. Called from a background
+     * thread, may take some time.
+     *
+     * @param config the configuration to apply
+     * @return the driver of the device, null if it is not there
+     * @throws IOException if the device could not be opened or configured
+     */
+    SerialDriver open(SerialPortConfig config) throws IOException;
+}
@@ -23,19 +23,33 @@ import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.TooManyListenersException;
 
-import android.os.AsyncTask;
 import android.os.Looper;
 import android.util.Log;
-import android.widget.Toast;
 
 import com.ftdi.j2xx.D2xxManager;
 import com.ftdi.j2xx.FT_Device;
-import java.nio.ByteBuffer;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import tw.com.prolific.driver.pl2303.PL2303Driver;
 
 /**
@@ -59,11 +73,42 @@ import tw.com.prolific.driver.pl2303.PL2303Driver;
  * <br/>
  * v1.2: add auto instantiation of the class selecting automatically the driver
  * and configuring the SerialPort object. Added {@link SerialPortConfig} class.
+ * <br/>
+ * v1.3: the monitor thread no longer spins on the device, it polls with a
+ * backoff (see {@link #setPollInterval(long, long)}) and parks while paused.
+ * A receive thread drains the device into a {@link RingBuffer}, streams read
+ * from memory. Asynchronous reads and writes ({@link #readAsync},
+ * {@link #writeAsync}) run on one I/O thread per port. Small writes can be
+ * batched ({@link #setWriteBatching(int, long)}). Added {@link #getChannel()}
+ * to read and write ByteBuffers. Chips are reached through
+ * {@link SerialDriver}, {@link LoopbackDriver} simulates one in memory.
+ * {@link FrameReader} splits delimited frames, a {@link FrameDecoder} can
+ * decode length-prefixed, SLIP or COBS frames as they are received. Any number
+ * of event listeners, each one with its own event types and executor. Modem
+ * line (CTS, DSR, RI, CD) and line error (OE, PE, FE, BI) events, read from
+ * the driver on each receive cycle. OUTPUT_BUFFER_EMPTY events when the bytes
+ * waiting to be sent drop to a low-water mark. {@link SerialPortManager}
+ * opens every adapter plugged in at once. {@link #AutomaticInit} remembers
+ * the device it found and tries it first on the next start, without toasts.
+ * {@link #openAsync} opens a port in the background, ports reconnect by
+ * themselves when the device comes back after being unplugged.
+ * {@link SerialPortConfig} is immutable, built with a builder and checked.
+ * {@link BaudRateDetector} finds the rate of a device sending by itself.
+ * Receive threshold, timeout and framing byte as in RXTX
+ * ({@link #enableReceiveThreshold}, {@link #enableReceiveTimeout},
+ * {@link #enableReceiveFraming}). Sending and receiving take separate locks
+ * and writes no longer pause the monitor thread: a reader and a writer run
+ * in parallel. Reads at offset 0 with nothing buffered go from the device
+ * straight into the caller's array. Events can be taken from a pool instead
+ * of created each time ({@link #setEventPooling(boolean)}). Every port keeps
+ * throughput and latency metrics ({@link #getMetrics()}), reported
+ * periodically if asked ({@link #setMetricsReporter}). What a port receives
+ * and sends can be recorded to a file ({@link #setCapture}) and played back
+ * by a {@link ReplayDriver}.
  *
  * @author Jeremy.Mei-Garino
- * @version 1.2
+ * @version 1.3
  */
-@SuppressWarnings("CallToThreadYield")
 public class SerialPort {
 
     private static final String Tag = "SerialPortLib";
@@ -75,82 +120,408 @@ public class SerialPort {
      */
     public String portName;
     public int baudRate;
-    private boolean monThreadisInterrupted = true;
+    private volatile boolean monThreadisInterrupted = true;
     private boolean MonitorThreadAlive = false;
     // private boolean MonitorThreadLock = true;
-    final private FT_Device self_ftdi;
-    final private PL2303Driver self_prolific;
+    /**
+     * The chip behind this port, replaced when the device is reconnected.
+     * Reads and status are synchronized on {@link #rxLock}, writes on
+     * {@link #txLock}, so one thread can receive while another one sends.
+     * Everything else (configuration, replacement, close) holds both,
+     * rxLock first.
+     */
+    private volatile SerialDriver driver;
+    final private Object rxLock = new Object();
+    final private Object txLock = new Object();
+    /**
+     * false once the driver was closed, changed with both locks held.
+     */
+    private boolean driverOpen = true;
+    /**
+     * Opens the device again after it was unplugged, null if the port was
+     * built around a driver given by the application.
+     */
+    private final SerialDriverFactory factory;
+    /**
+     * Configuration replayed on reconnection, null without factory.
+     */
+    private volatile SerialPortConfig config;
+    private volatile boolean connected = true;
+    private volatile boolean closed = false;
+    private volatile boolean autoReconnect = true;
+    /**
+     * true while a reconnection attempt is scheduled, so that only one chain
+     * of attempts runs. Guarded by reconnectLock.
+     */
+    private boolean reconnectScheduled = false;
+    private final Object reconnectLock = new Object();
+    /**
+     * Delays, in milliseconds, before the first reconnection attempt and
+     * between the last ones.
+     */
+    private volatile long reconnectMin = 100;
+    private volatile long reconnectMax = 10000;
+    /**
+     * Bytes written while disconnected are kept for the reconnection, up to
+     * this many.
+     */
+    private static final int MAX_HELD_OUTPUT = 64 * 1024;
     // private SerialPort self;
+    private final PortMetrics metrics = new PortMetrics();
     /**
-     * Serial Port Event listener
+     * Sends {@link #metrics} snapshots, null when no reporter is set.
      */
-    private SerialPortEventListener SPEventListener;
+    private ScheduledFuture<?> metricsReport = null;
     /**
      * Thread to monitor data
      */
     private MonitorThread monThread;
+    /**
+     * Shortest delay, in milliseconds, between two polls of the device when
+     * data is flowing.
+     */
+    private volatile long pollIntervalMin = 1;
+    /**
+     * Longest delay, in milliseconds, between two polls of an idle device.
+     */
+    private volatile long pollIntervalMax = 50;
+    /**
+     * Should we raise {@link SerialPortEvent#DATA_AVAILABLE} events.
+     */
+    private volatile boolean notifyData = false;
+    /**
+     * Should we raise {@link SerialPortEvent#OUTPUT_BUFFER_EMPTY} events.
+     */
+    private volatile boolean notifyOutput = false;
+    /**
+     * Bytes accepted by the output stream or {@link #writeAsync} and not
+     * given to the driver yet.
+     */
+    private final AtomicInteger txQueued = new AtomicInteger();
+    /**
+     * OUTPUT_BUFFER_EMPTY is raised when txQueued drops to this or below.
+     */
+    private volatile int txLowWater = 0;
+    /**
+     * {@link SerialDriver} STATUS_* bits of the line events to raise, CTS to
+     * BI. Bit n is for the event type {@link SerialPortEvent#CTS} + n.
+     */
+    private volatile int statusEvents = 0;
+    /**
+     * Last status read by the receive thread, -1 before the first one.
+     */
+    private int lineStatus = -1;
+    private static final int MODEM_LINES = SerialDriver.STATUS_CTS
+            | SerialDriver.STATUS_DSR | SerialDriver.STATUS_RI
+            | SerialDriver.STATUS_CD;
+    /**
+     * Shortest time, in nanoseconds, between two DATA_AVAILABLE events.
+     */
+    private volatile long dataEventInterval = 0;
+    /**
+     * Bytes received from the device and not read yet by the application.
+     */
+    private final RingBuffer rxBuffer = new RingBuffer(64 * 1024,
+            RingBuffer.OverflowPolicy.DROP_OLDEST);
+    /**
+     * Serial Port Event listeners
+     */
+    private final EventBus bus = new EventBus(metrics, rxBuffer);
+    /**
+     * Thread permanently draining the device into {@link #rxBuffer}.
+     */
+    private final ReceiveThread rxThread = new ReceiveThread();
+    /**
+     * Decoder fed by the receive thread instead of {@link #rxBuffer}, null
+     * when none is installed.
+     */
+    private volatile FrameStage frameStage = null;
+    /**
+     * Where received and sent bytes are recorded, null when not capturing.
+     */
+    private volatile CaptureStage captureStage = null;
+    /**
+     * The one thread running asynchronous reads and writes of this port.
+     */
+    private final ScheduledExecutorService ioExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "serialIoThread " + portName);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    /**
+     * Asynchronous reads waiting for bytes to arrive. They are handed to
+     * {@link #ioExecutor} by the receive thread so they never block writes
+     * queued behind them.
+     */
+    private final Queue<FutureTask<Integer>> pendingReads = new ConcurrentLinkedQueue<FutureTask<Integer>>();
 
     /**
-     * Automatic initializer, returning null at the moment.
+     * Automatic initializer. Tries the device opened last time first, then
+     * looks for an FTDI device and last for a Prolific one. The device found
+     * and its configuration are remembered for the next start, see
+     * {@link #clearDeviceCache(Context)}. Slow: do not call it from the main
+     * thread.
      *
      * @since 1.2
      * @param ctx the Context
-     * @param config the SerialPort's configuration object.
+     * @param config the SerialPort's configuration object, null to reuse the
+     * one of last time.
      * @param uDev unused right now
      * @param uDevCon unused right now
-     * @return
+     * @return null if no compatible device was found.
      */
     public static SerialPort AutomaticInit(Context ctx, SerialPortConfig config, UsbDevice uDev, UsbDeviceConnection uDevCon) {
+        DeviceCache cached = DeviceCache.load(ctx);
+        if (config == null) {
+            if (cached == null) {
+                Log.e(Tag, "no configuration given and none saved");
+                return null;
+            }
+            config = cached.config;
+        }
+        SerialDriver d = openDevice(ctx, config, cached);
+        if (d == null) {
+            //no compatible devices found will return null.
+            return null;
+        }
+        return new SerialPort(d, config.baudRate, config, new UsbDriverFactory(ctx));
+    }
+
+    /**
+     * Open the device of last time, or the first FTDI or Prolific one found,
+     * and remember it.
+     *
+     * @param cached the device of last time, null if none
+     * @return null if no compatible device was found.
+     */
+    private static SerialDriver openDevice(Context ctx, SerialPortConfig config, DeviceCache cached) {
+        SerialDriver d = null;
+        boolean ftdiTried = false;
+        boolean prolificTried = false;
+        if (cached != null) {
+            // usually the same device as last time: only initialize its driver.
+            if (DeviceCache.FTDI.equals(cached.chip)) {
+                // falls back to the first FTDI device by itself.
+                d = openFtdi(ctx, config, cached);
+                ftdiTried = true;
+            } else {
+                d = openProlific(ctx, config);
+                prolificTried = true;
+            }
+        }
         //will first try for FTDI devices:
+        if (d == null && !ftdiTried) {
+            d = openFtdi(ctx, config, null);
+        }
+        //then Profilic devices.
+        if (d == null && !prolificTried) {
+            d = openProlific(ctx, config);
+        }
+        // only remember a device actually open, not one waiting for the
+        // permission.
+        if (d != null && d.isConnected()) {
+            DeviceCache found = DeviceCache.of(d, config);
+            if (found != null) {
+                found.save(ctx, cached);
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Opens the USB device found by {@link #AutomaticInit}, again.
+     */
+    private static final class UsbDriverFactory implements SerialDriverFactory {
+
+        private final Context ctx;
+
+        UsbDriverFactory(Context ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public SerialDriver open(SerialPortConfig config) {
+            return openDevice(ctx, config, DeviceCache.load(ctx));
+        }
+    }
+
+    /**
+     * Like {@link #AutomaticInit}, on a background thread. The port
+     * reconnects by itself if the device is unplugged and plugged back, see
+     * {@link #setAutoReconnect(boolean)}.
+     *
+     * @since 1.3
+     * @param ctx the Context
+     * @param config the SerialPort's configuration object
+     * @return the port once open, failing with an IOException if there was
+     * no compatible device.
+     */
+    public static Future<SerialPort> openAsync(Context ctx, SerialPortConfig config) {
+        return openAsync(new UsbDriverFactory(ctx), config);
+    }
+
+    /**
+     * Open a port on a background thread. The factory is called again to
+     * reconnect if the device is unplugged, see
+     * {@link #setAutoReconnect(boolean)}.
+     *
+     * @since 1.3
+     * @param factory opens the device
+     * @param config the SerialPort's configuration object
+     * @return the port once open, failing with an IOException if the factory
+     * found no device.
+     */
+    public static Future<SerialPort> openAsync(final SerialDriverFactory factory, final SerialPortConfig config) {
+        if (config == null) {
+            throw new NullPointerException();
+        }
+        FutureTask<SerialPort> task = new FutureTask<SerialPort>(new Callable<SerialPort>() {
+            @Override
+            public SerialPort call() throws IOException {
+                SerialDriver d = factory.open(config);
+                if (d == null) {
+                    throw new IOException("No device to open");
+                }
+                return new SerialPort(d, config.baudRate, config, factory);
+            }
+        });
+        EventDelivery.BACKGROUND.execute(task);
+        return task;
+    }
+
+    /**
+     * Forget the device remembered by {@link #AutomaticInit}, the next call
+     * will look for every kind of chip again.
+     *
+     * @since 1.3
+     * @param ctx the Context
+     */
+    public static void clearDeviceCache(Context ctx) {
+        DeviceCache.clear(ctx);
+    }
+
+    /**
+     * VID/PID given to the d2xx driver when no device is cached, on top of
+     * the FTDI ones it knows.
+     */
+    private static final int FTDI_VID = 0x0403;
+    private static final int FTDI_PID = 0xada1;
+
+    /**
+     * Open an FTDI device.
+     *
+     * @param cached the device to open, null for the first one found. If it
+     * is not there the first one found is opened.
+     * @return null if there is none.
+     */
+    private static SerialDriver openFtdi(Context ctx, SerialPortConfig config, DeviceCache cached) {
         try {
             D2xxManager ftdi_manager = D2xxManager.getInstance(ctx);
-            if (!ftdi_manager.setVIDPID(0x0403, 0xada1)) {
+            boolean known = cached != null && cached.vid != 0;
+            if (!ftdi_manager.setVIDPID(known ? cached.vid : FTDI_VID, known ? cached.pid : FTDI_PID)) {
                 Log.i("ftd2xx-java", "setVIDPID Error");
                 throw new D2xxManager.D2xxException();
             }
-            //open-up devices with count:
-            int DevCount = ftdi_manager.createDeviceInfoList(ctx);
-            if (DevCount > 0) {
-
-                FT_Device ftDev = ftdi_manager.openByIndex(ctx, 0);
+            FT_Device ftDev = known ? openCachedFtdi(ctx, ftdi_manager, cached) : null;
+            if (ftDev == null) {
+                //open-up devices with count:
+                int DevCount = ftdi_manager.createDeviceInfoList(ctx);
+                if (DevCount <= 0) {
+                    Log.e("j2xx", "DevCount <= 0");
+                    return null;
+                }
+                if (cached != null && cached.serialNumber != null) {
+                    ftDev = ftdi_manager.openBySerialNumber(ctx, cached.serialNumber);
+                }
                 if (ftDev == null) {
-                    throw new D2xxManager.D2xxException("ftdi devices are null");
+                    // not there: the first one, from the same list.
+                    ftDev = ftdi_manager.openByIndex(ctx, 0);
                 }
-
-                if (true == ftDev.isOpen()) {
-                    Toast.makeText(ctx,
-                            "devCount:" + DevCount + " open index:" + 0,
-                            Toast.LENGTH_SHORT).show();
-                } else {
-                    Toast.makeText(ctx, "Need to get permission!", Toast.LENGTH_SHORT)
-                            .show();
+                if (Log.isLoggable(Tag, Log.INFO)) {
+                    Log.i(Tag, "devCount:" + DevCount);
                 }
-                ftDev.setBaudRate(config.baudRate);
-                ftDev.setDataCharacteristics(config.dataBits, config.stopBits, config.parity);
-                ftDev.setFlowControl(config.flowCtrlSetting, (byte) 0x0b, (byte) 0x0c);
-                return new SerialPort(ftDev, config.baudRate);
-            } else {
-                Log.e("j2xx", "DevCount <= 0");
             }
-        } catch (D2xxManager.D2xxException ex) {
-            Log.i("SerialPort", "Auto initialisation failed for FTDI device");
-            Logger.getLogger(SerialPort.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        //end of FTDI auto instantiation.
-        //begin of Profilic device instantiation.
-        PL2303Driver prolific = new PL2303Driver((UsbManager) ctx.getSystemService(Context.USB_SERVICE), ctx, Tag);
-        if (prolific.isConnected()) {
+            if (ftDev == null) {
+                return null;
+            }
+            if (!ftDev.isOpen()) {
+                Log.w(Tag, "FTDI device not open, need to get permission!");
+            }
+            FtdiDriver d = new FtdiDriver(ftDev);
             try {
-                prolific.setup(config.convertToProlificBaudRate(), config.convertToProlificDataBits(), config.convertToProlificStopBits(), config.convertToProlificParity(), config.convertToProlificFlowControl());
+                d.configure(config);
             } catch (IOException ex) {
-                Logger.getLogger(SerialPort.class.getName()).log(Level.SEVERE, null, ex);
+                Log.e(Tag, "could not configure " + d.getName(), ex);
             }
-            return new SerialPort(prolific, config.baudRate);
+            return d;
+        } catch (D2xxManager.D2xxException ex) {
+            Log.i(Tag, "Auto initialisation failed for FTDI device", ex);
         }
-        //no compatible devices found will return null.
         return null;
     }
 
+    /**
+     * Open the cached FTDI device straight from the USB devices attached,
+     * without building the d2xx device list: there is no USB transfer to
+     * make when it is the only one with its VID/PID.
+     *
+     * @return null if it is not the only one, not there or has another
+     * serial number.
+     */
+    private static FT_Device openCachedFtdi(Context ctx, D2xxManager ftdi_manager, DeviceCache cached) {
+        UsbManager m = (UsbManager) ctx.getSystemService(Context.USB_SERVICE);
+        Map<String, UsbDevice> attached = m != null ? m.getDeviceList() : null;
+        if (attached == null) {
+            return null;
+        }
+        UsbDevice found = null;
+        for (UsbDevice u : attached.values()) {
+            if (u.getVendorId() == cached.vid && u.getProductId() == cached.pid) {
+                if (found != null) {
+                    // several: only the device list knows the serial numbers.
+                    return null;
+                }
+                found = u;
+            }
+        }
+        if (found == null) {
+            return null;
+        }
+        FT_Device ftDev = ftdi_manager.openByUsbDevice(ctx, found);
+        if (ftDev == null || cached.serialNumber == null) {
+            return ftDev;
+        }
+        D2xxManager.FtDeviceInfoListNode info = ftDev.getDeviceInfo();
+        if (info != null && !cached.serialNumber.equals(info.serialNumber)) {
+            ftDev.close();
+            return null;
+        }
+        return ftDev;
+    }
+
+    /**
+     * Open the Prolific device.
+     *
+     * @return null if there is none.
+     */
+    private static SerialDriver openProlific(Context ctx, SerialPortConfig config) {
+        PL2303Driver prolific = new PL2303Driver((UsbManager) ctx.getSystemService(Context.USB_SERVICE), ctx, Tag);
+        if (!prolific.isConnected()) {
+            return null;
+        }
+        ProlificDriver d = new ProlificDriver(prolific);
+        try {
+            d.configure(config);
+        } catch (IOException ex) {
+            Log.e(Tag, "could not configure " + d.getName(), ex);
+        }
+        return d;
+    }
+
     /**
      * FTDI devices initializer. Will return null if no device. should be
      * deprecated but we will see that when we will be on v1.4
@@ -163,7 +534,7 @@ public class SerialPort {
         if (d == null) {
             return null;
         }
-        return new SerialPort(d, baudRate);
+        return new SerialPort(new FtdiDriver(d), baudRate);
     }
 
     /**
@@ -175,6 +546,22 @@ public class SerialPort {
      * @return
      */
     public static SerialPort Init(PL2303Driver d, int baudRate) {
+        if (d == null) {
+            return null;
+        }
+        return new SerialPort(new ProlificDriver(d), baudRate);
+    }
+
+    /**
+     * Initializer for any {@link SerialDriver}, like the
+     * {@link LoopbackDriver}. Will return null if no driver.
+     *
+     * @since 1.3
+     * @param d the driver, already configured
+     * @param baudRate
+     * @return
+     */
+    public static SerialPort Init(SerialDriver d, int baudRate) {
         if (d == null) {
             return null;
         }
@@ -182,131 +569,1181 @@ public class SerialPort {
     }
 
     /**
-     * FTDI device serial instantiation.
+     * serial instantiation.
      *
-     * @param d device
+     * @param d the driver of the device
      * @param b baudRate
      */
-    private SerialPort(FT_Device d, int b) {
-        // super(parentContext, usbManager, dev, itf);
-        portName = d.getDeviceInfo().location + "";
-        self_ftdi = d;
-        self_prolific = null;
-        baudRate = b;
+    private SerialPort(SerialDriver d, int b) {
+        this(d, b, null, null);
     }
 
     /**
-     * prolific device serial instantiation.
-     *
-     * @param d
-     * @param b
+     * @param c the configuration to replay on reconnection
+     * @param f opens the device again, null to never reconnect
      */
-    private SerialPort(PL2303Driver d, int b) {
-        // super(parentContext, usbManager, dev, itf);
-        portName = "Prolific Serial";
-        self_prolific = d;
-        self_ftdi = null;
+    private SerialPort(SerialDriver d, int b, SerialPortConfig c, SerialDriverFactory f) {
+        portName = d.getName();
+        driver = d;
         baudRate = b;
+        config = c;
+        factory = f;
+        rxThread.start();
     }
 
     public boolean setBaudRate(int b) {
+        synchronized (rxLock) {
+            synchronized (txLock) {
+                if (!driver.setBaudRate(b)) {
+                    return false;
+                }
+                if (config != null && b > 0) {
+                    config = config.withBaudRate(b);
+                }
+            }
+        }
         baudRate = b;
-        return self_ftdi.setBaudRate(b);
+        return true;
     }
 
-    public void notifyOnDataAvailable(boolean enable) {
-        monThread.Data = enable;
-        self_ftdi.setEventNotification(D2xxManager.FT_EVENT_RXCHAR);
+    /**
+     * Reconnect by itself when the device comes back after being unplugged,
+     * the default for ports opened with {@link #AutomaticInit} or
+     * {@link #openAsync}. The configuration is applied again and what was
+     * written meanwhile is sent.
+     *
+     * @since 1.3
+     * @param enable false to stay disconnected. true while disconnected
+     * starts trying again.
+     */
+    public void setAutoReconnect(boolean enable) {
+        synchronized (reconnectLock) {
+            autoReconnect = enable;
+            if (enable && factory != null && !connected && !closed && !reconnectScheduled) {
+                reconnectScheduled = true;
+                scheduleReconnect(reconnectMin);
+            }
+        }
     }
 
     /**
-     * @param lsnr
-     * @throws TooManyListenersException
+     * Set how long to wait between reconnection attempts. The delay doubles
+     * after each failed attempt, from min up to max.
+     *
+     * @since 1.3
+     * @param minMillis delay before the first attempt, default 100
+     * @param maxMillis longest delay between attempts, default 10000
      */
-    public void addEventListener(SerialPortEventListener lsnr)
-            throws TooManyListenersException {
-        /*
-         * Don't let any notification requests happen until the
-         * 
-         * Eventloop is ready
-         */
-        if (SPEventListener != null) {
-            throw new TooManyListenersException();
+    public void setReconnectDelay(long minMillis, long maxMillis) {
+        if (minMillis <= 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("Invalid delays: " + minMillis + ", " + maxMillis);
+        }
+        reconnectMin = minMillis;
+        reconnectMax = maxMillis;
+    }
+
+    /**
+     * @since 1.3
+     * @return false while the device is unplugged.
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Called by the receive thread when the device is gone.
+     */
+    private void connectionLost() {
+        synchronized (rxLock) {
+            synchronized (txLock) {
+                if (!driverOpen) {
+                    return;
+                }
+                driverOpen = false;
+                connected = false;
+                driver.close();
+            }
+        }
+        metrics.disconnects.add(1);
+        Log.w(Tag, portName + " disconnected");
+        if (monThread != null) {
+            monThread.connectionChanged();
+        }
+        synchronized (reconnectLock) {
+            if (factory != null && autoReconnect && !closed && !reconnectScheduled) {
+                reconnectScheduled = true;
+                scheduleReconnect(reconnectMin);
+            }
+        }
+    }
+
+    private void scheduleReconnect(final long delay) {
+        try {
+            ioExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    reconnect(delay);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // closed meanwhile.
+            synchronized (reconnectLock) {
+                reconnectScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Try once to open the device again, scheduling the next attempt if it
+     * is not back yet.
+     *
+     * @param delay the delay before this attempt
+     */
+    private void reconnect(long delay) {
+        synchronized (reconnectLock) {
+            if (closed || connected || !autoReconnect) {
+                // setAutoReconnect(true) starts a new chain.
+                reconnectScheduled = false;
+                return;
+            }
+        }
+        SerialDriver d = null;
+        try {
+            d = factory.open(config);
+        } catch (IOException ex) {
+            Log.i(Tag, "reconnection of " + portName + " failed: " + ex.getMessage());
+        }
+        if (d == null) {
+            scheduleReconnect(Math.min(delay * 2, reconnectMax));
+            return;
+        }
+        synchronized (reconnectLock) {
+            // before the new driver is used: losing it again schedules anew.
+            reconnectScheduled = false;
+        }
+        synchronized (rxLock) {
+            synchronized (txLock) {
+                if (closed) {
+                    d.close();
+                    return;
+                }
+                driver = d;
+                driverOpen = true;
+            }
         }
-        SPEventListener = lsnr;
-        if (!MonitorThreadAlive) {
-            // MonitorThreadLock = true;
-            monThread = new MonitorThread();
-            monThread.execute();// start();
-            // native:
-            // waitForTheNativeCodeSilly();
-            MonitorThreadAlive = true;
+        metrics.reconnects.add(1);
+        Log.i(Tag, portName + " reconnected");
+        rxThread.reconnected();
+        out.reconnected();
+        rxThread.wake();
+        if (monThread != null) {
+            monThread.connectionChanged();
         }
     }
 
     /**
-     * Asynchronous thread permanently reading, in a discreet way, the serial
-     * port. If we subscribe to one of the events, will trigger it when
-     * necessary
+     * Set how often the receive thread checks the device for new data. While
+     * nothing happens the delay doubles from min up to max, and drops back to
+     * min as soon as an event arrives.
      *
-     * @author Jeremy.Mei-Garino
+     * @since 1.3
+     * @param min shortest delay between two polls, in milliseconds
+     * @param max longest delay between two polls, in milliseconds
+     */
+    public void setPollInterval(long min, long max) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("Invalid poll interval: " + min + "/" + max);
+        }
+        pollIntervalMin = min;
+        pollIntervalMax = max;
+    }
+
+    /**
+     * Collect small writes and send them to the device together, saving one
+     * USB transfer per write. The collected bytes are sent when size bytes
+     * are waiting, when the oldest one waited maxDelayMicros, or on
+     * {@link OutputStream#flush()}. Writes of size bytes or more are sent
+     * right away.
      *
+     * @since 1.3
+     * @param size bytes to collect before sending, 0 to turn batching off
+     * @param maxDelayMicros longest time a byte may wait, in microseconds
      */
-    class MonitorThread extends AsyncTask<Void, Void, Void> {
+    public void setWriteBatching(int size, long maxDelayMicros) {
+        if (size < 0 || (size > 0 && maxDelayMicros <= 0)) {
+            throw new IllegalArgumentException("Invalid write batching: " + size + "/" + maxDelayMicros);
+        }
+        out.setBatching(size, maxDelayMicros);
+    }
 
-        private static final String TAG = "monitorThread";
-        /**
-         * Note: these have to be separate boolean flags because the
-         * SerialPortEvent constants are NOT bit-flags, they are just defined as
-         * integers from 1 to 10 -DPL
-         */
-        private volatile boolean CTS = false;
-        private volatile boolean DSR = false;
-        private volatile boolean RI = false;
-        private volatile boolean CD = false;
-        private volatile boolean OE = false;
-        private volatile boolean PE = false;
-        private volatile boolean FE = false;
-        private volatile boolean BI = false;
-        private volatile boolean Data = false;
-        private volatile boolean Output = false;
-        private volatile Thread bgThread;
-        private boolean isPaused = false;
+    /**
+     * Set the size of the buffer holding received bytes until they are read.
+     * Bytes already received are kept.
+     *
+     * @since 1.3
+     * @param size size in bytes, 64KiB by default
+     */
+    public void setInputBufferSize(int size) {
+        rxBuffer.resize(size);
+    }
 
-        MonitorThread() {
-        }
+    /**
+     * Choose what happens when the application does not read fast enough and
+     * the input buffer is full. {@link RingBuffer.OverflowPolicy#BLOCK} stops
+     * draining the device, leaving the driver and flow control deal with it.
+     *
+     * @since 1.3
+     * @param policy {@link RingBuffer.OverflowPolicy#DROP_OLDEST} by default
+     */
+    public void setInputOverflowPolicy(RingBuffer.OverflowPolicy policy) {
+        rxBuffer.setOverflowPolicy(policy);
+    }
 
-        @Override
-        protected Void doInBackground(Void... params) {
-            bgThread = Thread.currentThread();
-            bgThread.setName("serialMonThread");
-            monThreadisInterrupted = false;
-            while (!monThreadisInterrupted) {
-                if (isPaused) {
-                    continue;
-                }
-                long event;
-                synchronized (self_ftdi) {
-                    event = self_ftdi.getEventStatus();
-                }
-                if (event < 0) {
-                    // error in here...
-                } else if (Data
-                        && event == D2xxManager.FT_EVENT_RXCHAR) {
-                    publishProgress();
-                }
-                // send event dataAvaiable.
+    /**
+     * @since 1.3
+     * @return the number of received bytes lost because the input buffer was
+     * full.
+     */
+    public long getInputOverruns() {
+        return rxBuffer.getDropped();
+    }
 
-            }
+    /**
+     * @since 1.3
+     * @return what this port did since it was opened: bytes, frames, driver
+     * call times, event latency, high-water marks, overruns and reconnects.
+     */
+    public PortMetrics.Snapshot getMetrics() {
+        return new PortMetrics.Snapshot(metrics, rxBuffer.getDropped(),
+                rxBuffer.getHighWater());
+    }
 
-            return null;
+    /**
+     * Hand a snapshot of {@link #getMetrics()} to r every period, on the I/O
+     * thread of this port.
+     *
+     * @since 1.3
+     * @param r the reporter, {@link PortMetrics#LOG} to log them, null to
+     * stop reporting
+     * @param periodMillis time between two reports
+     */
+    public synchronized void setMetricsReporter(final PortMetrics.Reporter r, long periodMillis) {
+        if (metricsReport != null) {
+            metricsReport.cancel(false);
+            metricsReport = null;
+        }
+        if (r == null) {
+            return;
+        }
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Invalid period: " + periodMillis);
+        }
+        try {
+            metricsReport = ioExecutor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        r.report(SerialPort.this, getMetrics());
+                    } catch (RuntimeException ex) {
+                        // thrown out of here it would cancel the next reports.
+                        Log.e(Tag, "metrics reporter failed", ex);
+                    }
+                }
+            }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // closed: nothing more to report.
+        }
+    }
+
+    /**
+     * Wait for received bytes to read.
+     *
+     * @param timeoutNanos the longest time to wait
+     * @return the number of bytes available, 0 on timeout, -1 once the
+     * port is closed and everything was read
+     * @throws InterruptedException
+     */
+    int awaitInput(long timeoutNanos) throws InterruptedException {
+        int a = rxBuffer.await(timeoutNanos);
+        return a == 0 && rxBuffer.isClosed() ? -1 : a;
+    }
+
+    /**
+     * Forget the bytes received so far, including the ones the receive
+     * thread already read from the device and is still putting in the input
+     * buffer.
+     */
+    void discardInput() {
+        while (rxThread.delivering) {
+            // with the BLOCK policy the thread may be waiting for room.
+            rxBuffer.clear();
+            Thread.yield();
+        }
+        rxBuffer.clear();
+    }
+
+    /**
+     * @return the number of reads that came with a framing or parity error
+     * while these were watched, see {@link #setStatusEvents}.
+     */
+    int lineErrors() {
+        return rxThread.lineErrors;
+    }
+
+    /**
+     * Decode the received bytes into frames as they arrive, on the receive
+     * thread. While a decoder is installed the bytes do not go to the input
+     * stream, and {@link #readAsync} calls fail once the input buffer is
+     * empty, pending ones included.
+     *
+     * @since 1.3
+     * @param decoder the decoder, null to go back to the input stream
+     * @param listener called on the receive thread for every frame, see
+     * {@link FrameQueue} to read them from another thread.
+     */
+    public void setFrameDecoder(FrameDecoder decoder, FrameListener listener) {
+        if (decoder == null) {
+            frameStage = null;
+            return;
+        }
+        if (listener == null) {
+            throw new NullPointerException();
+        }
+        frameStage = new FrameStage(decoder, listener, metrics);
+        // nothing will come for the pending reads anymore: let them fail.
+        FutureTask<Integer> pending;
+        while ((pending = pendingReads.poll()) != null) {
+            ioExecutor.execute(pending);
+        }
+    }
+
+    /**
+     * A decoder and where it sends its frames, swapped as a whole.
+     */
+    private static final class FrameStage implements FrameListener {
+
+        final FrameDecoder decoder;
+        final FrameListener listener;
+        final PortMetrics metrics;
+
+        FrameStage(FrameDecoder d, FrameListener l, PortMetrics m) {
+            decoder = d;
+            listener = l;
+            metrics = m;
+        }
+
+        /**
+         * Count the frame on its way to the listener.
+         */
+        @Override
+        public void onFrame(byte b[], int off, int len) {
+            metrics.framesIn.add(1);
+            listener.onFrame(b, off, len);
+        }
+    }
+
+    /**
+     * Record every chunk received from and sent to the device, with the time,
+     * until called again with null. Several ports can share a capture, each
+     * one with its id. The port does not close the capture.
+     *
+     * @since 1.3
+     * @param capture the capture, null to stop
+     * @param portId tells this port's records apart, 0 to 65535
+     */
+    public void setCapture(PortCapture capture, int portId) {
+        if (portId < 0 || portId > 0xffff) {
+            throw new IllegalArgumentException("Invalid port id: " + portId);
+        }
+        captureStage = capture == null ? null : new CaptureStage(capture, portId);
+    }
+
+    /**
+     * A capture and the id of this port in it, swapped as a whole.
+     */
+    private static final class CaptureStage {
+
+        final PortCapture capture;
+        final int port;
+
+        CaptureStage(PortCapture c, int p) {
+            capture = c;
+            port = p;
+        }
+
+        void record(int direction, long timestamp, byte b[], int len) {
+            capture.record(port, direction, timestamp, b, 0, len);
+        }
+    }
+
+    /**
+     * Limit the rate of {@link SerialPortEvent#DATA_AVAILABLE} events. Bytes
+     * arriving in between are reported together by the next event.
+     *
+     * @since 1.3
+     * @param minIntervalMillis shortest time between two events, 0 (the
+     * default) for no limit
+     */
+    public void setDataEventInterval(long minIntervalMillis) {
+        if (minIntervalMillis < 0) {
+            throw new IllegalArgumentException("Invalid interval: " + minIntervalMillis);
+        }
+        dataEventInterval = minIntervalMillis * 1000000L;
+    }
+
+    public void notifyOnDataAvailable(boolean enable) {
+        notifyData = enable;
+    }
+
+    /**
+     * Raise {@link SerialPortEvent#OUTPUT_BUFFER_EMPTY} events when the bytes
+     * waiting to be sent drop to the low-water mark, see
+     * {@link #setOutputLowWaterMark(int)}. A writer can wait for it to send
+     * more instead of sleeping or polling.
+     */
+    public void notifyOnOutputEmpty(boolean enable) {
+        notifyOutput = enable;
+    }
+
+    /**
+     * @since 1.3
+     * @param bytes raise OUTPUT_BUFFER_EMPTY once no more than this number of
+     * bytes wait to be sent, 0 (the default) for a really empty queue
+     */
+    public void setOutputLowWaterMark(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Invalid low-water mark: " + bytes);
+        }
+        txLowWater = bytes;
+    }
+
+    /**
+     * @since 1.3
+     * @return the number of bytes written to this port and not given to the
+     * driver yet: pending {@link #writeAsync} calls, write batch and writes in
+     * progress.
+     */
+    public int getOutputQueueSize() {
+        return txQueued.get();
+    }
+
+    /**
+     * Make reads wait for thresh bytes, or len bytes if fewer are asked, see
+     * {@link SerialInputStream#read(byte[], int, int)}. Combined with
+     * {@link #enableReceiveTimeout(int)} a read returns what came when the
+     * timeout elapsed.
+     *
+     * @since 1.3
+     * @param thresh the number of bytes, 0 to disable
+     */
+    public void enableReceiveThreshold(int thresh) {
+        if (thresh < 0) {
+            throw new IllegalArgumentException("Invalid threshold: " + thresh);
+        }
+        threshold = thresh;
+    }
+
+    public void disableReceiveThreshold() {
+        threshold = 0;
+    }
+
+    public boolean isReceiveThresholdEnabled() {
+        return threshold > 0;
+    }
+
+    /**
+     * @return the receive threshold, 0 if disabled.
+     */
+    public int getReceiveThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Make reads give up after time milliseconds: read() then returns -1 and
+     * read(byte[]...) what came so far, 0 if nothing. The deadline is taken
+     * when the read starts, on a monotonic clock, and the reader sleeps until
+     * bytes arrive or it is reached.
+     *
+     * @since 1.3
+     * @param time the timeout in milliseconds, 0 to disable
+     */
+    public void enableReceiveTimeout(int time) {
+        if (time < 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + time);
+        }
+        receiveTimeout = time;
+    }
+
+    public void disableReceiveTimeout() {
+        receiveTimeout = 0;
+    }
+
+    public boolean isReceiveTimeoutEnabled() {
+        return receiveTimeout > 0;
+    }
+
+    /**
+     * @return the receive timeout in milliseconds, 0 if disabled.
+     */
+    public int getReceiveTimeout() {
+        return receiveTimeout;
+    }
+
+    /**
+     * Make reads return right after framingByte is received, even before the
+     * threshold is reached. The byte is the last one returned.
+     *
+     * @since 1.3
+     * @param framingByte 0 to 255, or any byte value
+     */
+    public void enableReceiveFraming(int framingByte) {
+        this.framingByte = framingByte & 0xff;
+    }
+
+    public void disableReceiveFraming() {
+        framingByte = -1;
+    }
+
+    public boolean isReceiveFramingEnabled() {
+        return framingByte >= 0;
+    }
+
+    /**
+     * @return the framing byte, -1 if disabled.
+     */
+    public int getReceiveFramingByte() {
+        return framingByte;
+    }
+
+    /**
+     * Raise {@link SerialPortEvent#CTS} events when the line changes. Not
+     * every chip reports it, see {@link SerialDriver#getStatus()}.
+     */
+    public void notifyOnCTS(boolean enable) {
+        notifyOnStatus(SerialDriver.STATUS_CTS, enable);
+    }
+
+    public void notifyOnDSR(boolean enable) {
+        notifyOnStatus(SerialDriver.STATUS_DSR, enable);
+    }
+
+    public void notifyOnRingIndicator(boolean enable) {
+        notifyOnStatus(SerialDriver.STATUS_RI, enable);
+    }
+
+    public void notifyOnCarrierDetect(boolean enable) {
+        notifyOnStatus(SerialDriver.STATUS_CD, enable);
+    }
+
+    /**
+     * Raise {@link SerialPortEvent#OE} events when the chip reports an
+     * overrun. Errors are reported once per receive cycle at most.
+     */
+    public void notifyOnOverrunError(boolean enable) {
+        notifyOnStatus(SerialDriver.STATUS_OE, enable);
+    }
+
+    public void notifyOnParityError(boolean enable) {
+        notifyOnStatus(SerialDriver.STATUS_PE, enable);
+    }
+
+    public void notifyOnFramingError(boolean enable) {
+        notifyOnStatus(SerialDriver.STATUS_FE, enable);
+    }
+
+    public void notifyOnBreakInterrupt(boolean enable) {
+        notifyOnStatus(SerialDriver.STATUS_BI, enable);
+    }
+
+    private synchronized void notifyOnStatus(int bit, boolean enable) {
+        if (enable) {
+            statusEvents |= bit;
+        } else {
+            statusEvents &= ~bit;
+        }
+    }
+
+    /**
+     * @return the STATUS_* bits of the line events enabled.
+     */
+    int getStatusEvents() {
+        return statusEvents;
+    }
+
+    synchronized void setStatusEvents(int bits) {
+        statusEvents = bits;
+    }
+
+    /**
+     * @since 1.3
+     * @return the state of the Clear To Send line, false if the chip does not
+     * report it.
+     */
+    public boolean isCTS() {
+        return (readStatus() & SerialDriver.STATUS_CTS) != 0;
+    }
+
+    public boolean isDSR() {
+        return (readStatus() & SerialDriver.STATUS_DSR) != 0;
+    }
+
+    public boolean isRI() {
+        return (readStatus() & SerialDriver.STATUS_RI) != 0;
+    }
+
+    public boolean isCD() {
+        return (readStatus() & SerialDriver.STATUS_CD) != 0;
+    }
+
+    /**
+     * @return the driver status, 0 if it does not report one.
+     */
+    private int readStatus() {
+        int status;
+        synchronized (rxLock) {
+            status = driver.getStatus();
+        }
+        return status < 0 ? 0 : status;
+    }
+
+    /**
+     * Thread permanently draining the device into the input buffer, so
+     * nothing is lost while the application is busy and reads never wait on
+     * the USB device.
+     */
+    class ReceiveThread extends Thread {
+
+        /**
+         * Reused for every read on the device.
+         */
+        private final byte[] chunk = new byte[4096];
+        private volatile boolean stopped = false;
+        /**
+         * true from the moment bytes were read from the device until they are
+         * in the input buffer, set with {@link #rxLock} held. Readers must
+         * not read the device meanwhile, they would get the next bytes first.
+         */
+        volatile boolean delivering = false;
+        /**
+         * Number of reads that came with a framing or parity error, counted
+         * while line errors are watched. Unlike the events, an error the chip
+         * keeps reporting counts again with every read.
+         */
+        volatile int lineErrors = 0;
+
+        ReceiveThread() {
+            setName("serialReadThread");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long interval = pollIntervalMin;
+            while (!stopped) {
+                int n = readDevice();
+                if (n < 0) {
+                    connectionLost();
+                    waitConnected();
+                    interval = pollIntervalMin;
+                    continue;
+                }
+                int events = statusEvents;
+                if (events != 0 && monThread != null) {
+                    int status = checkStatus(events);
+                    if (n > 0 && status > 0 && (status & (SerialDriver.STATUS_FE
+                            | SerialDriver.STATUS_PE)) != 0) {
+                        lineErrors++;
+                    }
+                }
+                if (n > 0) {
+                    // something arrived: go back polling at full speed.
+                    interval = pollIntervalMin;
+                    FrameStage stage = frameStage;
+                    if (stage != null) {
+                        stage.decoder.decode(chunk, 0, n, stage);
+                        delivering = false;
+                        continue;
+                    }
+                    rxBuffer.write(chunk, 0, n);
+                    delivering = false;
+                    FutureTask<Integer> pending;
+                    while ((pending = pendingReads.poll()) != null) {
+                        ioExecutor.execute(pending);
+                    }
+                    if (notifyData && monThread != null) {
+                        monThread.dataArrived();
+                    }
+                    continue;
+                }
+                // nothing on the line, wait a bit longer each time, up to
+                // pollIntervalMax, so an idle port does not eat a cpu core.
+                synchronized (this) {
+                    if (!stopped) {
+                        try {
+                            wait(interval);
+                        } catch (InterruptedException ex) {
+                            stopped = true;
+                        }
+                    }
+                }
+                interval = Math.min(interval * 2, pollIntervalMax);
+            }
+        }
+
+        /**
+         * Read whatever the device has for us into {@link #chunk}.
+         *
+         * @return the number of bytes read, -1 if the device is gone.
+         */
+        private int readDevice() {
+            synchronized (rxLock) {
+                long t0 = System.nanoTime();
+                int n = driver.read(chunk, chunk.length);
+                long t1 = System.nanoTime();
+                metrics.driverRead(t1 - t0, n);
+                CaptureStage cs = captureStage;
+                if (cs != null && n > 0) {
+                    cs.record(PortCapture.RX, t1, chunk, n);
+                }
+                if (n <= 0 && !driver.isConnected()) {
+                    return -1;
+                }
+                delivering = n > 0;
+                return Math.max(n, 0);
+            }
+        }
+
+        /**
+         * Park until the device is back or the port closed.
+         */
+        private void waitConnected() {
+            synchronized (this) {
+                while (!connected && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        stopped = true;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Called once the new driver is in place.
+         */
+        void reconnected() {
+            // new device, nothing to compare its lines with.
+            lineStatus = -1;
+        }
+
+        /**
+         * Wake the thread up after a reconnection.
+         */
+        void wake() {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Compare the driver status with the one of the previous cycle and
+         * tell the monitor thread about line changes and errors we were asked
+         * to report.
+         *
+         * @param events the STATUS_* bits to report
+         * @return the driver status, -1 if it failed.
+         */
+        private int checkStatus(int events) {
+            int status;
+            synchronized (rxLock) {
+                status = driver.getStatus();
+            }
+            if (status < 0) {
+                return -1;
+            }
+            int previous = lineStatus;
+            lineStatus = status;
+            if (previous < 0) {
+                // first look at the lines, nothing to compare with yet.
+                previous = status & MODEM_LINES;
+            }
+            // the chip keeps reporting an error until the next packet: only
+            // the ones that were not there in the previous cycle are new.
+            int errors = status & ~previous & ~MODEM_LINES;
+            if ((errors & SerialDriver.STATUS_OE) != 0) {
+                metrics.chipOverruns.add(1);
+            }
+            int changed = ((previous ^ status) & MODEM_LINES) | errors;
+            if ((changed & events) != 0) {
+                monThread.statusChanged(previous & MODEM_LINES,
+                        status & MODEM_LINES, errors);
+            }
+            return status;
+        }
+
+        /**
+         * Stop the thread, waking it up if it is waiting.
+         */
+        public void Stop() {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            rxBuffer.close();
+        }
+    }
+
+    /**
+     * Add a listener called on the main thread for every event type. Any
+     * number of listeners can be added.
+     *
+     * @param lsnr
+     * @throws TooManyListenersException never anymore, kept for
+     * compatibility.
+     */
+    public void addEventListener(SerialPortEventListener lsnr)
+            throws TooManyListenersException {
+        addEventListener(lsnr, EventDelivery.MAIN_THREAD);
+    }
+
+    /**
+     * Add a listener for some event types, called through the given
+     * executor.
+     *
+     * @since 1.3
+     * @param lsnr the listener
+     * @param executor where to call it, see {@link EventDelivery}
+     * @param eventTypes the {@link SerialPortEvent} types to receive, every
+     * type if none is given
+     */
+    public void addEventListener(SerialPortEventListener lsnr, Executor executor, int... eventTypes) {
+        bus.add(lsnr, EventBus.mask(eventTypes), executor);
+        synchronized (bus) {
+            /*
+             * Don't let any notification requests happen until the
+             *
+             * Eventloop is ready
+             */
+            if (!MonitorThreadAlive) {
+                monThread = new MonitorThread();
+                monThread.start();
+                MonitorThreadAlive = true;
+            }
+        }
+    }
+
+    /**
+     * @since 1.3
+     * @param lsnr the listener to remove from every event type
+     */
+    public void removeEventListener(SerialPortEventListener lsnr) {
+        bus.remove(lsnr);
+    }
+
+    /**
+     * Remove every listener.
+     *
+     * @since 1.3
+     */
+    public void removeEventListener() {
+        bus.clear();
+    }
+
+    /**
+     * @return the number of listeners added and not removed.
+     */
+    int getListenerCount() {
+        return bus.size();
+    }
+
+    /**
+     * @return true once the monitor thread runs: a listener was added, and
+     * writes are no longer dropped.
+     */
+    boolean isMonitoring() {
+        synchronized (bus) {
+            return MonitorThreadAlive;
+        }
+    }
+
+    /**
+     * Stop the monitor thread a listener started, back to a port which drops
+     * its writes until the next {@link #addEventListener}.
+     */
+    void stopMonitoring() {
+        MonitorThread t;
+        synchronized (bus) {
+            if (!MonitorThreadAlive) {
+                return;
+            }
+            t = monThread;
+            t.Stop();
+            MonitorThreadAlive = false;
+        }
+        if (t != Thread.currentThread()) {
+            try {
+                // a new one must not find this one still running.
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reuse event objects from a small pool instead of creating one for each
+     * event, for busy ports on devices with a small heap. An event goes back
+     * to the pool once every listener returned from
+     * {@link SerialPortEventListener#serialEvent}: listeners must not keep it,
+     * only copy what they need out of it.
+     *
+     * @since 1.3
+     * @param enable false by default
+     */
+    public void setEventPooling(boolean enable) {
+        bus.setPooling(enable);
+    }
+
+    public boolean isEventPooling() {
+        return bus.isPooling();
+    }
+
+    /**
+     * Thread waiting for the {@link ReceiveThread} to signal something. If
+     * we subscribe to one of the events, will trigger it when necessary,
+     * each listener being called through its own executor.
+     *
+     * @author Jeremy.Mei-Garino
+     *
+     */
+    class MonitorThread extends Thread {
+
+        private static final String TAG = "monitorThread";
+        private volatile boolean isPaused = false;
+        /**
+         * set by the receive thread when new bytes were buffered.
+         */
+        private boolean dataPending = false;
+        /**
+         * when the first byte not reported yet was received.
+         */
+        private long dataSince = 0;
+        private long lastDataEvent = 0;
+        /**
+         * set by the receive thread when a line changed or an error came.
+         */
+        private boolean statusPending = false;
+        /**
+         * set when the output queue drained to the low-water mark.
+         */
+        private boolean outputPending = false;
+        /**
+         * connections lost or made since the last events.
+         */
+        private int connectionChanges = 0;
+        private boolean reportedConnected = true;
+        /**
+         * modem lines as told by the last events, -1 before the first change.
+         */
+        private int reportedLines = -1;
+        private int pendingLines = 0;
+        /**
+         * errors seen since the last events.
+         */
+        private int pendingErrors = 0;
+
+        MonitorThread() {
+            setName("serialMonThread");
+            setDaemon(true);
+            monThreadisInterrupted = false;
+        }
+
+        @Override
+        public void run() {
+            while (!monThreadisInterrupted) {
+                boolean data = false;
+                boolean status = false;
+                boolean output = false;
+                int changes = 0;
+                boolean wasConnected = true;
+                long since = 0;
+                int oldLines = 0;
+                int newLines = 0;
+                int errors = 0;
+                synchronized (this) {
+                    // park until the receive thread has something for us,
+                    // and while paused. Resume() or close() will wake us up.
+                    while ((isPaused || !(dataPending || statusPending
+                            || outputPending || connectionChanges > 0))
+                            && !monThreadisInterrupted) {
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            monThreadisInterrupted = true;
+                        }
+                    }
+                    if (monThreadisInterrupted) {
+                        break;
+                    }
+                    if (statusPending) {
+                        status = true;
+                        statusPending = false;
+                        oldLines = reportedLines;
+                        newLines = pendingLines;
+                        errors = pendingErrors;
+                        reportedLines = newLines;
+                        pendingErrors = 0;
+                    }
+                    if (outputPending) {
+                        output = true;
+                        outputPending = false;
+                    }
+                    if (connectionChanges > 0) {
+                        changes = connectionChanges;
+                        wasConnected = reportedConnected;
+                        connectionChanges = 0;
+                        if (changes % 2 == 1) {
+                            reportedConnected = !reportedConnected;
+                        }
+                    }
+                    if (dataPending) {
+                        // not before dataEventInterval since the last event,
+                        // bytes arriving meanwhile will go in the same one.
+                        long delay = lastDataEvent + dataEventInterval - System.nanoTime();
+                        if (delay <= 0) {
+                            data = true;
+                            dataPending = false;
+                            since = dataSince;
+                        } else if (!status && !output && changes == 0) {
+                            try {
+                                wait(delay / 1000000L, (int) (delay % 1000000L));
+                            } catch (InterruptedException ex) {
+                                monThreadisInterrupted = true;
+                            }
+                            continue;
+                        }
+                    }
+                }
+                if (status) {
+                    sendStatusEvents(oldLines, newLines, errors);
+                }
+                if (changes > 0) {
+                    sendConnectionEvents(changes, wasConnected);
+                }
+                if (output && bus.wants(SerialPortEvent.OUTPUT_BUFFER_EMPTY)) {
+                    bus.dispatch(bus.obtain(SerialPort.this,
+                            SerialPortEvent.OUTPUT_BUFFER_EMPTY, false, false, 0,
+                            System.nanoTime()));
+                }
+                if (data) {
+                    // send event dataAvaiable.
+                    lastDataEvent = System.nanoTime();
+                    if (bus.wants(SerialPortEvent.DATA_AVAILABLE)) {
+                        bus.dispatch(bus.obtain(SerialPort.this,
+                                SerialPortEvent.DATA_AVAILABLE, false, false,
+                                rxBuffer.available(), since));
+                    }
+                }
+            }
+        }
+
+        /**
+         * One event per modem line that changed and per error, if asked for.
+         */
+        private void sendStatusEvents(int oldLines, int newLines, int errors) {
+            int events = statusEvents;
+            for (int i = 0; i < 8; i++) {
+                int bit = 1 << i;
+                int type = SerialPortEvent.CTS + i;
+                if ((events & bit) == 0 || !bus.wants(type)) {
+                    continue;
+                }
+                if ((bit & MODEM_LINES) != 0) {
+                    if (((oldLines ^ newLines) & bit) != 0) {
+                        bus.dispatch(bus.obtain(SerialPort.this, type,
+                                (oldLines & bit) != 0, (newLines & bit) != 0, 0,
+                                System.nanoTime()));
+                    }
+                } else if ((errors & bit) != 0) {
+                    bus.dispatch(bus.obtain(SerialPort.this, type, false, true,
+                            0, System.nanoTime()));
+                }
+            }
+        }
+
+        /**
+         * A brief unplug is still reported, as a disconnection followed by a
+         * reconnection, even if both happened before the events were sent.
+         *
+         * @param changes the number of connections lost or made
+         * @param was whether the device was connected before
+         */
+        private void sendConnectionEvents(int changes, boolean was) {
+            if (!bus.wants(SerialPortEvent.CONNECTION)) {
+                return;
+            }
+            bus.dispatch(bus.obtain(SerialPort.this,
+                    SerialPortEvent.CONNECTION, was, !was, 0, System.nanoTime()));
+            if (changes % 2 == 0) {
+                bus.dispatch(bus.obtain(SerialPort.this,
+                        SerialPortEvent.CONNECTION, !was, was, 0, System.nanoTime()));
+            }
+        }
+
+        /**
+         * Called when the device was unplugged or reconnected.
+         */
+        void connectionChanged() {
+            synchronized (this) {
+                connectionChanges++;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Called by the writing thread when the output queue drained to the
+         * low-water mark.
+         */
+        void outputDrained() {
+            synchronized (this) {
+                outputPending = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Called by the receive thread when a modem line changed or the chip
+         * reported an error. Changes coming faster than the events can be
+         * sent are merged: a line going up and down again in between is not
+         * reported.
+         *
+         * @param previous the modem lines before the change
+         * @param lines the modem lines now
+         * @param errors the new line errors
+         */
+        void statusChanged(int previous, int lines, int errors) {
+            synchronized (this) {
+                if (reportedLines < 0) {
+                    reportedLines = previous;
+                }
+                pendingLines = lines;
+                pendingErrors |= errors;
+                statusPending = true;
+                notifyAll();
+            }
         }
 
-        @Override
-        protected void onProgressUpdate(Void... v) {
-            if (SPEventListener != null) {
-                SPEventListener.serialEvent(new SerialPortEvent(this,
-                        SerialPortEvent.DATA_AVAILABLE));
+        /**
+         * Called by the receive thread when new bytes are available.
+         */
+        void dataArrived() {
+            synchronized (this) {
+                if (!dataPending) {
+                    // further bytes will be reported by the same event.
+                    dataPending = true;
+                    dataSince = System.nanoTime();
+                    notifyAll();
+                }
             }
         }
 
@@ -316,7 +1753,7 @@ public class SerialPort {
         public void Pause() {
             synchronized (this) {
                 // Log.i(TAG,"low priority on: "+bgThread.getName());
-                bgThread.setPriority(Thread.MIN_PRIORITY);
+                setPriority(Thread.MIN_PRIORITY);
                 this.isPaused = true;
                 //	Log.i(TAG, "thread paused!");
             }
@@ -329,11 +1766,132 @@ public class SerialPort {
         public void Resume() {
             synchronized (this) {
                 // Log.i(TAG,"normal priority on: "+bgThread.getName());
-                bgThread.setPriority(Thread.NORM_PRIORITY);
+                setPriority(Thread.NORM_PRIORITY);
                 this.isPaused = false;
+                notifyAll();
                 //	Log.i(TAG, "thread resumed!");
             }
         }
+
+        /**
+         * Stop the thread, waking it up if it is waiting or paused.
+         */
+        public void Stop() {
+            synchronized (this) {
+                monThreadisInterrupted = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Write b on the I/O thread of this port and return immediately. b must
+     * not be modified until the write is done.
+     *
+     * @since 1.3
+     * @param b [] the array to write
+     * @param off the starting index
+     * @param len the length to write
+     * @return the number of bytes given to the device once written, 0 if
+     * the port drops writes: baud rate 0, or no event listener added yet.
+     * @throws RejectedExecutionException if the port is closed
+     */
+    public Future<Integer> writeAsync(final byte b[], final int off, final int len) {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        int queued = txQueued.addAndGet(len);
+        Future<Integer> f;
+        try {
+            f = ioExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    // the stream counts them again while it writes them.
+                    txQueued.addAndGet(-len);
+                    if (!out.acceptsWrites()) {
+                        return 0;
+                    }
+                    out.write(b, off, len);
+                    return len;
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            txQueued.addAndGet(-len);
+            throw ex;
+        }
+        metrics.queued(queued);
+        return f;
+    }
+
+    /**
+     * Read into b on the I/O thread of this port as soon as some bytes are
+     * received, and return immediately. Safe to call from the main thread.
+     * The receive threshold, timeout and framing do not apply: the read
+     * completes with whatever arrived. The two exclude a frame decoder, see
+     * {@link #setFrameDecoder}: with one installed the read fails with an
+     * IOException once the input buffer is empty.
+     *
+     * @since 1.3
+     * @param b [] destination
+     * @param off the starting index
+     * @param len the maximum length to read
+     * @return the number of bytes read once done.
+     */
+    public Future<Integer> readAsync(final byte b[], final int off, final int len) {
+        if ((off < 0) || (len < 0) || (off + len > b.length)) {
+            throw new IndexOutOfBoundsException();
+        }
+        FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                // what has arrived: threshold and timeout would hold the I/O
+                // thread.
+                int n = rxBuffer.read(b, off, len);
+                if (n == 0 && len > 0 && frameStage != null) {
+                    throw new IOException("Received bytes go to the frame decoder");
+                }
+                return n;
+            }
+        });
+        if (len == 0 || rxBuffer.available() > 0 || rxBuffer.isClosed()
+                || frameStage != null) {
+            ioExecutor.execute(task);
+        } else {
+            pendingReads.add(task);
+            // bytes or a decoder may have come in before we were queued.
+            if ((rxBuffer.available() > 0 || rxBuffer.isClosed() || frameStage != null)
+                    && pendingReads.remove(task)) {
+                ioExecutor.execute(task);
+            }
+        }
+        return task;
+    }
+
+    /**
+     * Wait for an asynchronous read or write, unwrapping its IOException.
+     */
+    private static int await(Future<Integer> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            Throwable c = ex.getCause();
+            if (c instanceof IOException) {
+                throw (IOException) c;
+            } else if (c instanceof RuntimeException) {
+                throw (RuntimeException) c;
+            }
+            throw new IOException(c);
+        }
+    }
+
+    /**
+     * @return the chip behind this port.
+     */
+    SerialDriver getDriver() {
+        return driver;
     }
 
     public String getName() {
@@ -341,6 +1899,14 @@ public class SerialPort {
     }
     SerialOutputStream out = new SerialOutputStream();
 
+    /**
+     * The stream blocks its caller until the bytes are given to the driver,
+     * on the main thread too: there the transfer runs on the I/O thread of
+     * the port, as Android wants no USB transfer on the main thread, but the
+     * caller still waits for it. Use {@link #writeAsync} to not wait.
+     *
+     * @return the output stream of the port.
+     */
     public OutputStream getOutputStream() {
         return out;
     }
@@ -350,6 +1916,59 @@ public class SerialPort {
      */
     class SerialOutputStream extends OutputStream {
 
+        /**
+         * Reused by {@link #write(int)}.
+         */
+        private final byte[] single = new byte[4];
+        /**
+         * Reused to hand the drivers, which always write from index 0, the
+         * bytes of a write starting at another offset. Grows when needed.
+         */
+        private byte[] staging = new byte[256];
+        /**
+         * Bytes written while the device was unplugged, sent once it is
+         * back.
+         */
+        private byte[] held = null;
+        private int heldCount = 0;
+        /**
+         * Small writes waiting to be sent together, null when batching is
+         * off.
+         */
+        private byte[] batch = null;
+        private int batchCount = 0;
+        private long batchDelay = 0;
+        /**
+         * Sends the batch once the oldest byte in it waited batchDelay.
+         */
+        private ScheduledFuture<?> batchTimer = null;
+        private final Runnable batchFlusher = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SerialOutputStream.this) {
+                    batchTimer = null;
+                    flushBatch();
+                }
+            }
+        };
+
+        /**
+         * @return false if writes are dropped: baud rate 0, or the monitor
+         * thread not running because no event listener was added.
+         */
+        boolean acceptsWrites() {
+            return baudRate != 0 && !monThreadisInterrupted;
+        }
+
+        /**
+         * @see SerialPort#setWriteBatching(int, long)
+         */
+        synchronized void setBatching(int size, long delayMicros) {
+            flushBatch();
+            batch = size > 0 ? new byte[size] : null;
+            batchDelay = delayMicros;
+        }
+
         /**
          * Write an int as a 4 values byte array into the serial Port.
          *
@@ -357,15 +1976,31 @@ public class SerialPort {
          * @throws IOException
          */
         @Override
-        public void write(int b) throws IOException {
+        public void write(final int b) throws IOException {
             if (baudRate == 0) {
                 return;
             }
             if (monThreadisInterrupted == true) {
                 return;
             }
-            synchronized (self_ftdi) {
-                write(ByteBuffer.allocate(4).putInt(b).array(), 0, 4);
+            if (Looper.getMainLooper() == Looper.myLooper()) {
+                // on UIThread/MainThread: let the I/O thread do the work,
+                // and wait for it all the same.
+                await(ioExecutor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        write(b);
+                        return 4;
+                    }
+                }));
+                return;
+            }
+            synchronized (this) {
+                single[0] = (byte) (b >>> 24);
+                single[1] = (byte) (b >>> 16);
+                single[2] = (byte) (b >>> 8);
+                single[3] = (byte) b;
+                queue(single, 0, 4);
             }
         }
 
@@ -390,7 +2025,9 @@ public class SerialPort {
         }
 
         /**
-         * Write the byte array into the serial port.
+         * Write the byte array into the serial port. Blocks until the driver
+         * took the bytes, on the main thread too, see
+         * {@link SerialPort#getOutputStream()}.
          *
          * @param b [] the array to write
          * @param off the starting index
@@ -400,94 +2037,184 @@ public class SerialPort {
         @Override
         public void write(byte b[], int off, int len) throws IOException {
             if (baudRate == 0) {
-                Log.i(Tag, "baudrate was 0 nothing will be done.");
+                if (Log.isLoggable(Tag, Log.INFO)) {
+                    Log.i(Tag, "baudrate was 0 nothing will be done.");
+                }
                 return;
             }
-            if (off + len > b.length) {
+            if ((off < 0) || (len < 0) || (off + len > b.length)) {
                 throw new IndexOutOfBoundsException(
-                        "Invalid offset/length passed to read");
+                        "Invalid offset/length passed to write");
             }
-
-            byte send[] = new byte[len];
-            System.arraycopy(b, off, send, 0, len);
             if (monThreadisInterrupted == true) {
                 return;
             }
-            monThread.Pause();
-            Log.i(Tag, "bytes.write:" + send.length + " length, ");
             if (Looper.getMainLooper() == Looper.myLooper()) {
                 // if we are in here then we are on UIThread/MainThread.
-                // Will start a new one to work on for writing...
-                /**
-                 * simple thread helper
-                 *
-                 * @author Jeremy.Mei-Garino
-                 *
-                 */
-                class InternalWritingThread extends Thread {
-
-                    InternalWritingThread(Runnable r) {
-                        super(r);
-                        setName("writingSerialThread");
-                    }
-                }
-                /**
-                 * Runnable logic for reading our SerialPort from another
-                 * thread.
-                 *
-                 * @author Jeremy.Mei-Garino
-                 *
-                 */
-                class InternalWritingLogik implements Runnable {
-
-                    byte[] _fullData;
-                    int _length;
-
-                    InternalWritingLogik(byte[] dataHolder, int lengthToWrite) {
-                        super();
-                        _fullData = dataHolder;
-                        _length = lengthToWrite;
-                    }
+                // Let the I/O thread do the work, and block until it is
+                // done: see writeAsync() to not wait for it.
+                await(writeAsync(b, off, len));
+                return;
+            }
+            queue(b, off, len);
+        }
 
-                    /**
-                     * Will run our logic and yield the thread when it's done.
-                     */
-                    @Override
-                    public void run() {
-                        synchronized (self_ftdi) {
-                            Log.i(Tag, "writing on " + Thread.currentThread().getName() + " thread");
-                            if (self_ftdi != null) {
-                                self_ftdi.write(_fullData, _length);
-                            } else if (self_prolific != null) {
-                                self_prolific.write(_fullData, _length);
-                            }
+        /**
+         * Add the bytes to the batch if batching is on, otherwise write them
+         * right away.
+         */
+        private synchronized void queue(byte b[], int off, int len) throws IOException {
+            if (!connected && heldCount + batchCount + len > MAX_HELD_OUTPUT) {
+                throw new IOException("Port disconnected, output queue full");
+            }
+            metrics.framesOut.add(1);
+            metrics.queued(txQueued.addAndGet(len));
+            if (batch == null) {
+                writeDevice(b, off, len);
+                return;
+            }
+            if (len >= batch.length) {
+                // too big to be worth a copy.
+                flushBatch();
+                writeDevice(b, off, len);
+                return;
+            }
+            if (batch.length - batchCount < len) {
+                flushBatch();
+            }
+            System.arraycopy(b, off, batch, batchCount, len);
+            batchCount += len;
+            if (batchCount == batch.length) {
+                flushBatch();
+            } else if (batchTimer == null) {
+                batchTimer = ioExecutor.schedule(batchFlusher, batchDelay,
+                        TimeUnit.MICROSECONDS);
+            }
+        }
+
+        /**
+         * Send whatever is waiting in the batch.
+         */
+        synchronized void flushBatch() {
+            if (batchTimer != null) {
+                batchTimer.cancel(false);
+                batchTimer = null;
+            }
+            if (batchCount > 0) {
+                int n = batchCount;
+                batchCount = 0;
+                writeDevice(batch, 0, n);
+            }
+        }
+
+        /**
+         * Hand the bytes to the driver, on the calling thread. What the
+         * driver did not take is held until the device is back.
+         */
+        private synchronized void writeDevice(byte b[], int off, int len) {
+            if (connected && heldCount > 0) {
+                // left by a short write: goes before anything newer.
+                sendHeld();
+            }
+            if (!connected || heldCount > 0) {
+                hold(b, off, len);
+                return;
+            }
+            byte send[];
+            if (off == 0) {
+                // the drivers write from index 0: hand them the array as is.
+                send = b;
+            } else {
+                if (staging.length < len) {
+                    staging = new byte[Math.max(len, staging.length * 2)];
+                }
+                System.arraycopy(b, off, staging, 0, len);
+                send = staging;
+            }
+            if (Log.isLoggable(Tag, Log.DEBUG)) {
+                Log.d(Tag, "bytes.write:" + len + " length, on "
+                        + Thread.currentThread().getName());
+            }
+            int written = 0;
+            try {
+                // only the receive side waits on rxLock: reading goes on
+                // while we send.
+                synchronized (txLock) {
+                    // the device may have gone since connected was checked.
+                    if (driverOpen) {
+                        long t0 = System.nanoTime();
+                        written = Math.max(0, Math.min(driver.write(send, len), len));
+                        metrics.driverWrite(System.nanoTime() - t0, written);
+                        CaptureStage cs = captureStage;
+                        if (cs != null && written > 0) {
+                            cs.record(PortCapture.TX, t0, send, written);
                         }
-                        Thread.yield();
                     }
                 }
-                InternalWritingThread d = new InternalWritingThread(
-                        new InternalWritingLogik(send, len));
-                d.start();
-                while (d.isAlive()) {
-                }
-            } else {
-                if (Looper.myLooper() != null) {
-                    Log.i(Tag, "writing on " + Looper.myLooper().getThread().getName());
-                } else {
-                    Log.i(Tag, "writing on a null Looper Thread");
-                }
-                // we seems to already be on our own thread and should then be
-                // able to directly write...
-                if (self_ftdi != null) {
-                    self_ftdi.write(send, len);
-                } else if (self_prolific != null) {
-                    self_prolific.write(send, len);
+            } finally {
+                sent(written);
+            }
+            if (written < len) {
+                hold(send, written, len - written);
+            }
+        }
+
+        /**
+         * Keep bytes until the device is back. They stay counted in the
+         * output queue.
+         */
+        private void hold(byte b[], int off, int len) {
+            if (held == null || held.length - heldCount < len) {
+                byte[] n = new byte[Math.max(heldCount + len, held == null ? 256 : held.length * 2)];
+                if (heldCount > 0) {
+                    System.arraycopy(held, 0, n, 0, heldCount);
                 }
+                held = n;
+            }
+            System.arraycopy(b, off, held, heldCount, len);
+            heldCount += len;
+        }
+
+        /**
+         * The device is back: send what was written meanwhile, before any new
+         * write.
+         */
+        synchronized void reconnected() {
+            connected = true;
+            sendHeld();
+        }
+
+        /**
+         * Try to send the held bytes, what the driver does not take stays
+         * held.
+         */
+        private void sendHeld() {
+            if (heldCount > 0) {
+                int n = heldCount;
+                heldCount = 0;
+                writeDevice(held, 0, n);
+            }
+            if (heldCount == 0) {
+                held = null;
+            }
+        }
+
+        /**
+         * Take the bytes given to the driver out of the output queue, raising
+         * OUTPUT_BUFFER_EMPTY if it just dropped to the low-water mark.
+         */
+        private void sent(int len) {
+            int left = txQueued.addAndGet(-len);
+            int low = txLowWater;
+            if (notifyOutput && left <= low && left + len > low) {
+                monThread.outputDrained();
             }
-            monThread.Resume();
         }
 
         /**
+         * Send the bytes waiting in the batch, if write batching is on.
+         *
+         * @throws IOException
          */
         @Override
         public void flush() throws IOException {
@@ -497,9 +2224,19 @@ public class SerialPort {
             if (monThreadisInterrupted == true) {
                 return;
             }
-            synchronized (self_ftdi) {
-                self_ftdi.purge((byte) 2);
+            if (Looper.getMainLooper() == Looper.myLooper()) {
+                // on UIThread/MainThread: let the I/O thread do the work,
+                // and wait for it all the same.
+                await(ioExecutor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        flushBatch();
+                        return 0;
+                    }
+                }));
+                return;
             }
+            flushBatch();
         }
     }
     /**
@@ -517,9 +2254,16 @@ public class SerialPort {
     class SerialInputStream extends InputStream {
 
         /**
-         * Android: always throw a IOException.
+         * Used by {@link #read(byte[], int, int, byte[])}, created on first
+         * use.
+         */
+        private FrameReader frames = null;
+
+        /**
+         * Read one byte out of the input buffer.
          *
-         * @return int the int read
+         * @return int the byte read (0 to 255) or -1 on timeout or if the port
+         * was closed
          * @throws IOException
          * @see java.io.InputStream
          *
@@ -532,7 +2276,19 @@ public class SerialPort {
          */
         @Override
         public synchronized int read() throws IOException {
-            throw new IOException();
+            int timeout = receiveTimeout;
+            try {
+                if (timeout > 0) {
+                    rxBuffer.await(timeout * 1000000L);
+                } else {
+                    rxBuffer.await();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            // -1 if still empty: timeout or closed.
+            return rxBuffer.read();
         }
 
         /**
@@ -551,9 +2307,6 @@ public class SerialPort {
          */
         @Override
         public synchronized int read(byte b[]) throws IOException {
-            if (monThreadisInterrupted == true) {
-                return (0);
-            }
             return read(b, 0, b.length);
         }
 
@@ -563,10 +2316,13 @@ public class SerialPort {
          * /jdk/1.2/docs/api/java/io/InputStream.html#read(byte[], int, int)
          */
         /**
+         * Copy bytes already received by the receive thread into b, at off.
+         * When none are waiting and off is 0, the device is read directly
+         * into b first.
+         *
          * @param b []
          * @param off
-         * @param len the length to read. We warned that this parameter can be
-         * ignored depending on host device.
+         * @param len the maximum length to read.
          * @return int number of bytes read
          * @throws IOException
          *
@@ -576,11 +2332,14 @@ public class SerialPort {
          * >0 blocks until timeout or reads threshold bytes, returns 0 on
          * timeout 0 >0 blocks until either threshold # of bytes or len bytes,
          * whichever was lower.
+         * <br/>
+         * With framing enabled the read also returns right after the framing
+         * byte. The timeout is one deadline for the whole call, not reset by
+         * each byte received, see {@link #enableReceiveTimeout(int)}.
          */
         @Override
         public synchronized int read(byte b[], int off, int len)
                 throws IOException {
-            int result;
             if (b == null) {
                 Log.e(Tag + ":SerialInputStream:read() b == null",
                         "NullPointerException thrown...");
@@ -600,141 +2359,97 @@ public class SerialPort {
                 return 0;
             }
             /*
-             * See how many bytes we should read
+             * If threshold is disabled, read should return as soon as data
+             * are available (up to the amount of available bytes in order
+             * to avoid blocking). Otherwise wait for 'threshold' bytes.
              */
-            int Minimum = len;
-
-            if (threshold == 0) {
-                /*
-                 * If threshold is disabled, read should return as soon as data
-                 * are available (up to the amount of available bytes in order
-                 * to avoid blocking) Read may return earlier depending of the
-                 * receive time out.
-                 */
-                int a = self_ftdi.getQueueStatus();// nativeavailable();
-                if (a == 0) {
-                    Minimum = 1;
-                } else {
-                    Minimum = Math.min(Minimum, a);
-                }
-            } else {
-                /*
-                 * Threshold is enabled. Read should return when 'threshold'
-                 * bytes have been received (or when the receive timeout
-                 * expired)
-                 */
-                Minimum = Math.min(Minimum, threshold);
-            }
-            if (monThreadisInterrupted == true) {
-                return (0);
+            int t = threshold;
+            int Minimum = t == 0 ? 1 : Math.min(len, t);
+            int timeout = receiveTimeout;
+            int framing = framingByte;
+            long deadline = System.nanoTime() + timeout * 1000000L;
+            int result = 0;
+            if (off == 0 && framing < 0) {
+                result = readDirect(b, len);
             }
-            byte[] fullData = new byte[Minimum];
-            monThread.Pause();
-            if (Looper.getMainLooper() == Looper.myLooper()) {
-                // if we are in here then we are on UIThread/MainThread.
-                // Will start a new one to work on for reading...
-                /**
-                 * thread from which we can get back a int "FinalResult".
-                 *
-                 * @author Jeremy.Mei-Garino
-                 *
-                 */
-                class InternalReadingThread extends Thread {
-
-                    int FinalResult;
-
-                    InternalReadingThread(Runnable r) {
-                        super(r);
-                        setName("readingSerialThread");
+            try {
+                while (result < Minimum) {
+                    int a;
+                    if (timeout > 0) {
+                        long left = deadline - System.nanoTime();
+                        a = left > 0 ? rxBuffer.await(left) : rxBuffer.available();
+                    } else {
+                        a = rxBuffer.await();
                     }
-                }
-                /**
-                 * Runnable logic for reading our SerialPort from another
-                 * thread.
-                 *
-                 * @author Jeremy.Mei-Garino
-                 *
-                 */
-                class InternalReadingLogik implements Runnable {
-
-                    byte[] _fullData;
-                    int _Minimum;
-                    int _result;
-
-                    InternalReadingLogik(byte[] dataHolder, int lengthToRead) {
-                        super();
-                        _fullData = dataHolder;
-                        _Minimum = lengthToRead;
+                    if (a == 0) {
+                        // closed, or timed out.
+                        break;
                     }
-
-                    /**
-                     * Will run our logic and yield the thread when it's done.
-                     */
-                    @Override
-                    public void run() {
-                        if (self_ftdi != null) {
-                            _result = self_ftdi.read(_fullData, _Minimum);
-                        } else if (self_prolific != null) {
-                            _result = self_prolific.read(_fullData);
+                    if (framing < 0) {
+                        result += rxBuffer.read(b, off + result, len - result);
+                    } else {
+                        int n = rxBuffer.readUntil(b, off + result, len - result, (byte) framing);
+                        if (n == 0) {
+                            // another reader took the bytes first.
+                            continue;
+                        }
+                        result += n;
+                        if (b[off + result - 1] == (byte) framing) {
+                            break;
                         }
-                        InternalReadingThread r = (InternalReadingThread) Thread
-                                .currentThread();
-                        r.FinalResult = _result;
-                        Thread.yield();
                     }
                 }
-                InternalReadingThread d = new InternalReadingThread(
-                        new InternalReadingLogik(fullData, Minimum));
-                d.start();
-                while (d.isAlive()) {
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            return result;
+        }
+
+        /**
+         * Read from the device straight into b when nothing is waiting in the
+         * input buffer, instead of through the receive thread: no copy on our
+         * side. The drivers fill arrays from index 0 only.
+         *
+         * @return the number of bytes read, 0 if nothing was or bytes already
+         * received must be read first
+         */
+        private int readDirect(byte b[], int len) {
+            if (frameStage != null || !connected || rxBuffer.available() > 0) {
+                return 0;
+            }
+            synchronized (rxLock) {
+                if (!driverOpen || rxThread.delivering || rxBuffer.available() > 0) {
+                    return 0;
                 }
-                result = d.FinalResult;
-            } else {
-                // we seems to already be on our own thread and should then be
-                // able to directly read...
-                if (self_ftdi != null) {
-                    result = self_ftdi.read(fullData, Minimum);
-                } else if (self_prolific != null) {
-                    result = self_prolific.read(fullData);
-                } //defaulting to 0 if no devices...
-                else {
-                    result = 0;
-                }
-            }
-            monThread.Resume();
-            for (int i = 0; i < Minimum; i++) {
-                if (i < off) {
-                    continue;
+                long t0 = System.nanoTime();
+                int n = driver.read(b, len);
+                long t1 = System.nanoTime();
+                metrics.driverRead(t1 - t0, n);
+                CaptureStage cs = captureStage;
+                if (cs != null && n > 0) {
+                    cs.record(PortCapture.RX, t1, b, n);
                 }
-                b[i - off] = fullData[i];
+                return Math.max(n, 0);
             }
-            return result;
         }
 
         /**
-         * Do a simple call to:
+         * Read exactly one frame ending with t[], the terminator included, see
+         * {@link FrameReader}. Bytes received after the frame are kept for
+         * the next call: do not mix with the other read methods.
          *
-         * @see {@link #read(byte[], int, int) read(byte[] b,int i1,int i2)} And
-         * then clean and loop the b[] to find t[]
          * @param b []
          * @param off
-         * @param len
-         * @param t []
-         * @return int number of bytes read
-         * @throws IOException
-         *
-         * We are trying to catch the terminator in the native code Right now it
-         * is assumed that t[] is an array of 2 bytes.
-         *
-         * if the read encounters the two bytes, it will return and the array
-         * will contain the terminator. Otherwise read behavior should be the
-         * same as read( b[], off, len ). Timeouts have not been well tested.
+         * @param len the room available in b
+         * @param t [] the terminator, one byte or more
+         * @return int the frame length, 0 on receive timeout or if the stream is
+         * closed
+         * @throws IOException if the frame does not fit in len bytes
          */
         public synchronized int read(byte b[], int off, int len, byte t[])
                 throws IOException {
-            int result;
-
-            if (b == null) {
+            if (b == null || t == null) {
                 throw new NullPointerException();
             }
 
@@ -748,64 +2463,156 @@ public class SerialPort {
             if (len == 0) {
                 return 0;
             }
-            /*
-             * See how many bytes we should read
-             */
-            int Minimum = len;
-
-            if (threshold == 0) {
-                /*
-                 * If threshold is disabled, read should return as soon as data
-                 * are available (up to the amount of available bytes in order
-                 * to avoid blocking) Read may return earlier depending of the
-                 * receive time out.
-                 */
-                int a = self_ftdi != null ? self_ftdi.getQueueStatus() : 0;
-
-                if (a == 0) {
-                    Minimum = 1;
-                } else {
-                    Minimum = Math.min(Minimum, a);
-                }
+            if (frames == null) {
+                frames = new FrameReader(this, t, 4096);
             } else {
-                /*
-                 * Threshold is enabled. Read should return when 'threshold'
-                 * bytes have been received (or when the receive timeout
-                 * expired)
-                 */
-                Minimum = Math.min(Minimum, threshold);
+                frames.setDelimiter(t);
             }
-            if (monThreadisInterrupted == true) {
-                return (0);
+            int n = frames.readFrame(b, off, len);
+            if (n > 0) {
+                metrics.framesIn.add(1);
             }
-            byte[] fullData = new byte[Minimum];
-            result = read(fullData, 0, Minimum);
-            for (int i = 0; i < Minimum; i++) {
-                if (i < off) {
-                    continue;
+            return Math.max(n, 0);
+        }
+
+        /**
+         * @return int bytes received and not read yet.
+         * @throws IOException
+         */
+        @Override
+        public synchronized int available() throws IOException {
+            return rxBuffer.available();
+        }
+    }
+
+    private final SerialChannel channel = new SerialChannel();
+
+    /**
+     * @since 1.3
+     * @return a channel reading and writing this port straight from and to
+     * ByteBuffers.
+     */
+    public SerialChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Channel over the serial port. Reads copy the received bytes straight
+     * from the input buffer into the given ByteBuffer, heap or direct. Writes
+     * of heap buffers go to the output stream without a copy, direct buffers
+     * are copied once into an array reused for every write.
+     * <br/>
+     * In non-blocking mode a read returns 0 instead of waiting for bytes.
+     * Writes hand every byte to the device, or fail if the port drops writes
+     * (baud rate 0, or no event listener added yet).
+     *
+     * @since 1.3
+     */
+    public class SerialChannel implements ByteChannel {
+
+        private final Object readLock = new Object();
+        private final Object writeLock = new Object();
+        private volatile boolean blocking = true;
+        private volatile boolean open = true;
+        /**
+         * Reused to write direct buffers. Grows when needed.
+         */
+        private byte[] writeArray = new byte[256];
+
+        SerialChannel() {
+        }
+
+        /**
+         * @param block false to make reads return 0 instead of waiting.
+         * @return this channel
+         */
+        public SerialChannel configureBlocking(boolean block) {
+            blocking = block;
+            return this;
+        }
+
+        public boolean isBlocking() {
+            return blocking;
+        }
+
+        /**
+         * @param dst where to put the received bytes
+         * @return the number of bytes read, possibly 0 in non-blocking mode,
+         * -1 once the port is closed and everything was read.
+         * @throws IOException
+         */
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            synchronized (readLock) {
+                if (blocking) {
+                    try {
+                        rxBuffer.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
                 }
-                b[i - off] = fullData[i];
-                if (b[i - off] == t[1] && b[i - off - 1] == t[0]) {
-                    break;
+                int n = rxBuffer.read(dst);
+                if (n == 0 && rxBuffer.isClosed()) {
+                    return -1;
                 }
+                return n;
             }
-            return result;
         }
 
         /**
-         * Simply call {@link self.#getQueueStatus() selfgetQueueStatus()} on
-         * possible devices. otherwise will return 0 in case of error and a -1
-         * in case of unsupported function for current device.
-         *
-         * @return int bytes available
-         * @throws IOException
+         * @param src the bytes to send
+         * @return the number of bytes written, always src.remaining().
+         * @throws IOException if the port drops writes: baud rate 0, or no
+         * event listener added yet
          */
         @Override
-        public synchronized int available() throws IOException {
-            if (monThreadisInterrupted == true) {
-                return (0);
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (!out.acceptsWrites()) {
+                throw new IOException("Writes are dropped: baud rate 0 or no event listener");
+            }
+            int len = src.remaining();
+            if (len == 0) {
+                return 0;
+            }
+            synchronized (writeLock) {
+                if (src.hasArray()) {
+                    out.write(src.array(), src.arrayOffset() + src.position(), len);
+                    src.position(src.position() + len);
+                } else {
+                    if (writeArray.length < len) {
+                        writeArray = new byte[Math.max(len, writeArray.length * 2)];
+                    }
+                    src.get(writeArray, 0, len);
+                    out.write(writeArray, 0, len);
+                }
+            }
+            return len;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Close the channel and the serial port behind it.
+         */
+        @Override
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                SerialPort.this.close();
             }
-            return self_ftdi != null ? self_ftdi.getQueueStatus() : -1;
         }
     }
 
@@ -813,15 +2620,39 @@ public class SerialPort {
      * Close our SerialPort device.
      */
     public void close() {
-        if (self_ftdi != null) {
-            self_ftdi.close();
+        closed = true;
+        if (!monThreadisInterrupted) {
+            // send what is left of a write batch.
+            out.flushBatch();
         }
-        if (self_prolific != null) {
-            self_prolific.end();
+        if (monThread != null) {
+            monThread.Stop();
+        }
+        rxThread.Stop();
+        FutureTask<Integer> pending;
+        while ((pending = pendingReads.poll()) != null) {
+            pending.cancel(false);
+        }
+        ioExecutor.shutdown();
+        synchronized (rxLock) {
+            synchronized (txLock) {
+                if (driverOpen) {
+                    driverOpen = false;
+                    driver.close();
+                }
+            }
         }
     }
     /**
-     * Always At 0... because not used at the moment.
+     * Bytes a read waits for, 0 when disabled.
+     */
+    private volatile int threshold = 0;
+    /**
+     * Milliseconds a read waits at most, 0 when disabled.
+     */
+    private volatile int receiveTimeout = 0;
+    /**
+     * Byte ending a read, -1 when disabled.
      */
-    private int threshold = 0;
+    private volatile int framingByte = -1;
 }
@@ -4,129 +4,317 @@
  */
 package com.thebigbang;
 
+import com.ftdi.j2xx.D2xxManager;
+import java.util.Arrays;
 import tw.com.prolific.driver.pl2303.PL2303Driver;
 
 /**
  * Simple class helping the SerialPort device configuration.
+ * <br/>
+ * Since 1.3 a configuration can not be changed once built, see
+ * {@link #newBuilder()}. It is checked when built, and what the FTDI and
+ * Prolific drivers expect is computed once at that time, so applying it
+ * again, or a copy with another baud rate ({@link #withBaudRate(int)}), costs
+ * nothing more than the driver calls.
  *@since 1.2
  * @author thebigbang
  */
-public class SerialPortConfig {
-
-    public byte dataBits;
-    public byte stopBits;
-    public byte parity;
-    public int baudRate;
-    public short flowCtrlSetting;
+public final class SerialPortConfig {
 
+    public static final byte PARITY_NONE = 0;
+    public static final byte PARITY_ODD = 1;
+    public static final byte PARITY_EVEN = 2;
+    public static final byte PARITY_MARK = 3;
+    public static final byte PARITY_SPACE = 4;
+    public static final short FLOW_NONE = 0;
+    public static final short FLOW_RTS_CTS = 0x0100;
+    public static final short FLOW_DTR_DSR = 0x0200;
+    public static final short FLOW_XON_XOFF = 0x0400;
     /**
-     * simply convert quickly the baudRate value of our class into an enum used by prolifics drivers...
-     * @return 
+     * Baud rates the Prolific driver knows, sorted, and their enum.
      */
-    public PL2303Driver.BaudRate convertToProlificBaudRate() {
-        switch (baudRate) {
-            case 115200:
-                return PL2303Driver.BaudRate.B115200;
-            case 1200:
-                return PL2303Driver.BaudRate.B1200;
-            case 1228800:
-                return PL2303Driver.BaudRate.B1228800;
-            case 14400:
-                return PL2303Driver.BaudRate.B14400;
-            case 150:
-                return PL2303Driver.BaudRate.B150;
-            case 1800:
-                return PL2303Driver.BaudRate.B1800;
-            case 19200:
-                return PL2303Driver.BaudRate.B19200;
-            case 230400:
-                return PL2303Driver.BaudRate.B230400;
-            case 2400:
-                return PL2303Driver.BaudRate.B2400;
-            case 2457600:
-                return PL2303Driver.BaudRate.B2457600;
-            case 300:
-                return PL2303Driver.BaudRate.B300;
-            case 3000000:
-                return PL2303Driver.BaudRate.B3000000;
-            case 38400:
-                return PL2303Driver.BaudRate.B38400;
-            case 460800:
-                return PL2303Driver.BaudRate.B460800;
-            case 4800:
-                return PL2303Driver.BaudRate.B4800;
-            case 57600:
-                return PL2303Driver.BaudRate.B57600;
-            case 600:
-                return PL2303Driver.BaudRate.B600;
-            case 6000000:
-                return PL2303Driver.BaudRate.B6000000;
-            case 614400:
-                return PL2303Driver.BaudRate.B614400;
-            case 75:
-                return PL2303Driver.BaudRate.B75;
-            case 921600:
-                return PL2303Driver.BaudRate.B921600;
-            case 9600:
-                return PL2303Driver.BaudRate.B9600;
+    private static final int[] PROLIFIC_RATES = {75, 150, 300, 600, 1200, 1800,
+        2400, 4800, 9600, 14400, 19200, 38400, 57600, 115200, 230400, 460800,
+        614400, 921600, 1228800, 2457600, 3000000, 6000000};
+    private static final PL2303Driver.BaudRate[] PROLIFIC_BAUDS = {
+        PL2303Driver.BaudRate.B75, PL2303Driver.BaudRate.B150,
+        PL2303Driver.BaudRate.B300, PL2303Driver.BaudRate.B600,
+        PL2303Driver.BaudRate.B1200, PL2303Driver.BaudRate.B1800,
+        PL2303Driver.BaudRate.B2400, PL2303Driver.BaudRate.B4800,
+        PL2303Driver.BaudRate.B9600, PL2303Driver.BaudRate.B14400,
+        PL2303Driver.BaudRate.B19200, PL2303Driver.BaudRate.B38400,
+        PL2303Driver.BaudRate.B57600, PL2303Driver.BaudRate.B115200,
+        PL2303Driver.BaudRate.B230400, PL2303Driver.BaudRate.B460800,
+        PL2303Driver.BaudRate.B614400, PL2303Driver.BaudRate.B921600,
+        PL2303Driver.BaudRate.B1228800, PL2303Driver.BaudRate.B2457600,
+        PL2303Driver.BaudRate.B3000000, PL2303Driver.BaudRate.B6000000};
+    private static final PL2303Driver.DataBits[] PROLIFIC_DATA_BITS = {
+        PL2303Driver.DataBits.D5, PL2303Driver.DataBits.D6,
+        PL2303Driver.DataBits.D7, PL2303Driver.DataBits.D8};
+    /**
+     * 5 to 8.
+     */
+    public final byte dataBits;
+    /**
+     * 1 or 2.
+     */
+    public final byte stopBits;
+    /**
+     * One of the PARITY_* values.
+     */
+    public final byte parity;
+    public final int baudRate;
+    /**
+     * One of the FLOW_* values.
+     */
+    public final short flowCtrlSetting;
+    private final byte ftdiStopBits;
+    private final PL2303Driver.BaudRate prolificBaudRate;
+    private final PL2303Driver.DataBits prolificDataBits;
+    private final PL2303Driver.StopBits prolificStopBits;
+    private final PL2303Driver.Parity prolificParity;
+    private final PL2303Driver.FlowControl prolificFlowControl;
+    private final int bitsPerByte;
+
+    private SerialPortConfig(Builder b) {
+        baudRate = b.baudRate;
+        dataBits = (byte) b.dataBits;
+        stopBits = (byte) b.stopBits;
+        parity = (byte) b.parity;
+        flowCtrlSetting = (short) b.flowCtrlSetting;
+        ftdiStopBits = stopBits == 2 ? D2xxManager.FT_STOP_BITS_2 : D2xxManager.FT_STOP_BITS_1;
+        int r = Arrays.binarySearch(PROLIFIC_RATES, baudRate);
+        prolificBaudRate = r >= 0 ? PROLIFIC_BAUDS[r] : null;
+        prolificDataBits = PROLIFIC_DATA_BITS[dataBits - 5];
+        prolificStopBits = stopBits == 2 ? PL2303Driver.StopBits.S2 : PL2303Driver.StopBits.S1;
+        switch (parity) {
+            case PARITY_NONE:
+                prolificParity = PL2303Driver.Parity.NONE;
+                break;
+            case PARITY_ODD:
+                prolificParity = PL2303Driver.Parity.ODD;
+                break;
+            case PARITY_EVEN:
+                prolificParity = PL2303Driver.Parity.EVEN;
+                break;
+            default:
+                prolificParity = null;
+        }
+        switch (flowCtrlSetting) {
+            case FLOW_RTS_CTS:
+                prolificFlowControl = PL2303Driver.FlowControl.RTSCTS;
+                break;
+            case FLOW_DTR_DSR:
+                prolificFlowControl = PL2303Driver.FlowControl.DTRDSR;
+                break;
+            case FLOW_XON_XOFF:
+                prolificFlowControl = PL2303Driver.FlowControl.XONXOFF;
+                break;
             default:
-                return PL2303Driver.BaudRate.B0;
+                prolificFlowControl = PL2303Driver.FlowControl.OFF;
         }
+        bitsPerByte = 1 + dataBits + (parity == PARITY_NONE ? 0 : 1) + stopBits;
     }
-/**
- * convert our dataBits into an enum used by prolifics driver
- * @param dataBits
- * @return 
- */
-    public PL2303Driver.DataBits convertToProlificDataBits() {
-        switch(dataBits)
-        {
-            default:return PL2303Driver.DataBits.D5;
-            case 6:return PL2303Driver.DataBits.D6;
-            case 7:return PL2303Driver.DataBits.D7;
-            case 8:return PL2303Driver.DataBits.D8;
+
+    /**
+     * @return every standard baud rate, the ones the Prolific driver knows,
+     * sorted.
+     */
+    static int[] standardRates() {
+        return PROLIFIC_RATES.clone();
+    }
+
+    /**
+     * @return a builder starting from 9600 bauds, 8 data bits, no parity, 1
+     * stop bit and no flow control.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a builder starting from this configuration.
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .setBaudRate(baudRate)
+                .setDataBits(dataBits)
+                .setStopBits(stopBits)
+                .setParity(parity)
+                .setFlowControl(flowCtrlSetting);
+    }
+
+    /**
+     * @param b the new baud rate
+     * @return this configuration with another baud rate.
+     */
+    public SerialPortConfig withBaudRate(int b) {
+        if (b == baudRate) {
+            return this;
         }
+        return toBuilder().setBaudRate(b).build();
+    }
+
+    /**
+     * @return the bits sent on the line for each byte: start, data, parity
+     * and stop bits.
+     */
+    public int getBitsPerByte() {
+        return bitsPerByte;
+    }
+
+    /**
+     * @return the time, in nanoseconds, one byte takes on the line.
+     */
+    public long getByteTimeNanos() {
+        return getFrameTimeNanos(1);
+    }
+
+    /**
+     * @param bytes the length of the frame
+     * @return the time, in nanoseconds, the frame takes on the line when sent
+     * without gaps.
+     */
+    public long getFrameTimeNanos(int bytes) {
+        return ((long) bytes * bitsPerByte * 1000000000L + baudRate - 1) / baudRate;
+    }
+
+    /**
+     * @return the stop bits value FTDI devices expect.
+     */
+    public byte getFtdiStopBits() {
+        return ftdiStopBits;
+    }
+
+    /**
+     * @return the baud rate enum used by prolifics drivers, null if they do
+     * not support this rate.
+     */
+    public PL2303Driver.BaudRate convertToProlificBaudRate() {
+        return prolificBaudRate;
+    }
+
+    public PL2303Driver.DataBits convertToProlificDataBits() {
+        return prolificDataBits;
     }
 
     /**
-     * convert the flowcontrol value into one usable by Prolifics driver
-     * todo: check correctness of the values.
-     * @return 
+     * @return the flow control enum used by prolifics drivers.
      */
     public PL2303Driver.FlowControl convertToProlificFlowControl() {
-        switch(flowCtrlSetting)
-        {
-           default:return PL2303Driver.FlowControl.OFF;
-           case 1:return PL2303Driver.FlowControl.XONXOFF;
-           case 2:return PL2303Driver.FlowControl.DTRDSR;
-           case 3:return PL2303Driver.FlowControl.RFRCTS;
-           case 4:return PL2303Driver.FlowControl.RTSCTS;
-        }
+        return prolificFlowControl;
     }
 
     /**
-     * return the enum type used by Prolifics drivers
-     * todo: check correctness of the values...
-     * @return 
+     * @return the parity enum used by prolifics drivers, null for mark and
+     * space parities they do not support.
      */
     public PL2303Driver.Parity convertToProlificParity() {
-        switch(parity)
-        {
-            default:return PL2303Driver.Parity.NONE;
-            case 1:return PL2303Driver.Parity.EVEN;
-            case 2:return PL2303Driver.Parity.ODD;
+        return prolificParity;
+    }
+
+    public PL2303Driver.StopBits convertToProlificStopBits() {
+        return prolificStopBits;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SerialPortConfig)) {
+            return false;
         }
+        SerialPortConfig c = (SerialPortConfig) o;
+        return baudRate == c.baudRate && dataBits == c.dataBits
+                && stopBits == c.stopBits && parity == c.parity
+                && flowCtrlSetting == c.flowCtrlSetting;
+    }
+
+    @Override
+    public int hashCode() {
+        return (((baudRate * 31 + dataBits) * 31 + stopBits) * 31 + parity) * 31
+                + flowCtrlSetting;
+    }
+
+    @Override
+    public String toString() {
+        return baudRate + " " + dataBits + "NOEMS".charAt(parity) + stopBits
+                + (flowCtrlSetting == FLOW_NONE ? "" : " flow " + flowCtrlSetting);
     }
 
     /**
-     * convert the stop bits into one enum used by prolific drivers
-     * @return 
+     * Builds checked {@link SerialPortConfig}s.
+     *
+     * @since 1.3
      */
-    public PL2303Driver.StopBits convertToProlificStopBits() {
-        switch(stopBits)
-        {
-            default:return PL2303Driver.StopBits.S1;
-            case 2:return PL2303Driver.StopBits.S2;
+    public static final class Builder {
+
+        private int baudRate = 9600;
+        private int dataBits = 8;
+        private int stopBits = 1;
+        private int parity = PARITY_NONE;
+        private int flowCtrlSetting = FLOW_NONE;
+
+        private Builder() {
+        }
+
+        public Builder setBaudRate(int b) {
+            baudRate = b;
+            return this;
+        }
+
+        /**
+         * @param b 5 to 8
+         */
+        public Builder setDataBits(int b) {
+            dataBits = b;
+            return this;
+        }
+
+        /**
+         * @param b 1 or 2
+         */
+        public Builder setStopBits(int b) {
+            stopBits = b;
+            return this;
+        }
+
+        /**
+         * @param p one of the PARITY_* values
+         */
+        public Builder setParity(int p) {
+            parity = p;
+            return this;
+        }
+
+        /**
+         * @param f one of the FLOW_* values
+         */
+        public Builder setFlowControl(int f) {
+            flowCtrlSetting = f;
+            return this;
+        }
+
+        /**
+         * @return the configuration.
+         * @throws IllegalArgumentException if a value is out of range
+         */
+        public SerialPortConfig build() {
+            if (baudRate <= 0) {
+                throw new IllegalArgumentException("Invalid baud rate: " + baudRate);
+            }
+            if (dataBits < 5 || dataBits > 8) {
+                throw new IllegalArgumentException("Invalid data bits: " + dataBits);
+            }
+            if (stopBits != 1 && stopBits != 2) {
+                throw new IllegalArgumentException("Invalid stop bits: " + stopBits);
+            }
+            if (parity < PARITY_NONE || parity > PARITY_SPACE) {
+                throw new IllegalArgumentException("Invalid parity: " + parity);
+            }
+            if (flowCtrlSetting != FLOW_NONE && flowCtrlSetting != FLOW_RTS_CTS
+                    && flowCtrlSetting != FLOW_DTR_DSR && flowCtrlSetting != FLOW_XON_XOFF) {
+                throw new IllegalArgumentException("Invalid flow control: " + flowCtrlSetting);
+            }
+            return new SerialPortConfig(this);
         }
     }
 }
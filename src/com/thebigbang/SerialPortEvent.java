@@ -57,6 +57,7 @@
 --------------------------------------------------------------------------*/
 package com.thebigbang;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
 * @author Trent Jarvi, Jeremy.Mei-Garino (Android port)
@@ -80,34 +81,119 @@ public class SerialPortEvent extends EventObject
 	public static final int PE                  =8;
 	public static final int FE                  =9;
 	public static final int BI                 =10;
+	/**
+	 * The device was unplugged (new value false) or reconnected (true).
+	 * @since 1.3
+	 */
+	public static final int CONNECTION         =11;
 
-	//private boolean OldValue;
-	//private boolean NewValue;
+	private boolean OldValue;
+	private boolean NewValue;
 	private int eventType;
+	private int bytesAvailable;
+	private long timestamp;
+	/**
+	 * true if the event goes back to the pool of its port once every
+	 * listener got it, see {@link SerialPort#setEventPooling(boolean)}.
+	 */
+	boolean pooled;
+	/**
+	 * deliveries not finished yet.
+	 */
+	private volatile int refs;
+	private static final AtomicIntegerFieldUpdater<SerialPortEvent> REFS =
+		AtomicIntegerFieldUpdater.newUpdater(SerialPortEvent.class, "refs");
 
 	public SerialPortEvent(Object sender, int eventType)
 	{
 		super(sender);
 		this.eventType=eventType;
+		timestamp=System.nanoTime();
 	}
 	public SerialPortEvent(Object sender, int eventtype, boolean oldvalue, boolean newvalue)
 	{
 		super( sender );	
-		//OldValue=oldvalue;
-		//NewValue=newvalue;
+		OldValue=oldvalue;
+		NewValue=newvalue;
+		eventType=eventtype;
+		timestamp=System.nanoTime();
+	}
+	/**
+	 * DATA_AVAILABLE event.
+	 * @param bytesAvailable bytes waiting in the input stream when the event was raised
+	 * @param timestamp System.nanoTime() when the first of them was received
+	 * @since 1.3
+	 */
+	public SerialPortEvent(Object sender, int eventtype, int bytesAvailable, long timestamp)
+	{
+		super( sender );
 		eventType=eventtype;
+		this.bytesAvailable=bytesAvailable;
+		this.timestamp=timestamp;
+	}
+	/**
+	 * Fill an event taken from a pool, or just created.
+	 * @since 1.3
+	 */
+	void set(int eventtype, boolean oldvalue, boolean newvalue, int bytesAvailable, long timestamp)
+	{
+		eventType=eventtype;
+		OldValue=oldvalue;
+		NewValue=newvalue;
+		this.bytesAvailable=bytesAvailable;
+		this.timestamp=timestamp;
+	}
+	void retain()
+	{
+		REFS.incrementAndGet(this);
+	}
+	/**
+	 * @return true once the last delivery is done.
+	 */
+	boolean release()
+	{
+		return REFS.decrementAndGet(this)==0;
 	}
 	public int getEventType()
 	{
 		return(eventType);
 	}
-	/*public boolean getNewValue()
+	/**
+	 * For DATA_AVAILABLE events: the bytes that could be read at once when
+	 * the event was raised, more may have arrived since.
+	 * @since 1.3
+	 */
+	public int getBytesAvailable()
+	{
+		return(bytesAvailable);
+	}
+	/**
+	 * System.nanoTime() when the event happened. For DATA_AVAILABLE events,
+	 * when the first byte not reported yet was received.
+	 * @since 1.3
+	 */
+	public long getTimestamp()
+	{
+		return(timestamp);
+	}
+	/**
+	 * For CTS, DSR, RI and CD events: the state of the line after the
+	 * change. Always true for OE, PE, FE and BI. For CONNECTION events:
+	 * whether the device is connected now.
+	 * @since 1.3
+	 */
+	public boolean getNewValue()
 	{
 		return( NewValue );
 	}
+	/**
+	 * For CTS, DSR, RI and CD events: the state of the line before the
+	 * change. Always false for OE, PE, FE and BI.
+	 * @since 1.3
+	 */
 	public boolean getOldValue()
 	{
 		return( OldValue );
-	}*/
+	}
 }
 
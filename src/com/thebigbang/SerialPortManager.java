@@ -0,0 +1,280 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+import android.content.Context;
+import android.hardware.usb.UsbManager;
+import android.util.Log;
+import com.ftdi.j2xx.D2xxManager;
+import com.ftdi.j2xx.FT_Device;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import tw.com.prolific.driver.pl2303.PL2303Driver;
+
+/**
+ * Opens every compatible adapter plugged in, where
+ * {@link SerialPort#AutomaticInit} only opens the first one. Devices are
+ * configured in parallel, so opening N of them takes about the time of the
+ * slowest one. Each {@link SerialPort} keeps its own receive and I/O
+ * threads.
+ * <br/>
+ * What the ports receive can be read from one queue, each chunk tagged with
+ * its port. Reading a port's input stream directly as well would steal bytes
+ * from the queue.
+ * <br/>
+ * Note: the Prolific driver only handles one device, at most one PL2303 is
+ * opened.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class SerialPortManager {
+
+    private static final String Tag = "SerialPortManager";
+
+    /**
+     * Bytes received by one port.
+     */
+    public static final class PortData {
+
+        public final SerialPort port;
+        public final byte[] data;
+        /**
+         * System.nanoTime() when the first of the bytes was received.
+         */
+        public final long timestamp;
+
+        PortData(SerialPort port, byte[] data, long timestamp) {
+            this.port = port;
+            this.data = data;
+            this.timestamp = timestamp;
+        }
+    }
+    private final Context ctx;
+    private final List<SerialPort> ports = new CopyOnWriteArrayList<SerialPort>();
+    private final BlockingQueue<PortData> received;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param ctx the application context
+     */
+    public SerialPortManager(Context ctx) {
+        this(ctx, 1024);
+    }
+
+    /**
+     * @param ctx the application context
+     * @param capacity the number of chunks kept until read, see
+     * {@link #take()}
+     */
+    public SerialPortManager(Context ctx, int capacity) {
+        this.ctx = ctx;
+        received = new ArrayBlockingQueue<PortData>(capacity);
+    }
+
+    /**
+     * Open and configure every FTDI and Prolific device not opened yet. Slow:
+     * do not call it from the main thread.
+     *
+     * @param config applied to every device
+     * @return the ports opened by this call, empty if none.
+     */
+    public List<SerialPort> openAll(final SerialPortConfig config) {
+        List<Callable<SerialDriver>> tasks = new ArrayList<Callable<SerialDriver>>();
+        try {
+            final D2xxManager ftdi = D2xxManager.getInstance(ctx);
+            if (!ftdi.setVIDPID(0x0403, 0xada1)) {
+                Log.i("ftd2xx-java", "setVIDPID Error");
+            }
+            int count = ftdi.createDeviceInfoList(ctx);
+            for (int i = 0; i < count; i++) {
+                D2xxManager.FtDeviceInfoListNode info = ftdi.getDeviceInfoListDetail(i);
+                if (info != null && (info.flags & D2xxManager.FT_FLAGS_OPENED) != 0) {
+                    // already ours, or someone else's.
+                    continue;
+                }
+                final int index = i;
+                tasks.add(new Callable<SerialDriver>() {
+                    @Override
+                    public SerialDriver call() throws IOException {
+                        FT_Device d = ftdi.openByIndex(ctx, index);
+                        if (d == null || !d.isOpen()) {
+                            throw new IOException("Could not open FTDI device " + index);
+                        }
+                        return configure(new FtdiDriver(d), config);
+                    }
+                });
+            }
+        } catch (D2xxManager.D2xxException ex) {
+            Log.e(Tag, "FTDI devices not available", ex);
+        }
+        if (!hasProlific()) {
+            PL2303Driver p = new PL2303Driver((UsbManager) ctx.getSystemService(Context.USB_SERVICE), ctx, Tag);
+            if (p.isConnected()) {
+                final ProlificDriver d = new ProlificDriver(p);
+                tasks.add(new Callable<SerialDriver>() {
+                    @Override
+                    public SerialDriver call() throws IOException {
+                        return configure(d, config);
+                    }
+                });
+            }
+        }
+        List<SerialPort> opened = new ArrayList<SerialPort>();
+        if (tasks.isEmpty()) {
+            return opened;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+        try {
+            for (Future<SerialDriver> f : pool.invokeAll(tasks)) {
+                try {
+                    SerialPort port = SerialPort.Init(f.get(), config.baudRate);
+                    attach(port);
+                    opened.add(port);
+                } catch (ExecutionException ex) {
+                    Log.e(Tag, "Could not open a device", ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+        return opened;
+    }
+
+    /**
+     * Configure d, closing it if it refuses.
+     */
+    private static SerialDriver configure(SerialDriver d, SerialPortConfig config)
+            throws IOException {
+        try {
+            d.configure(config);
+        } catch (IOException ex) {
+            d.close();
+            throw ex;
+        }
+        return d;
+    }
+
+    private boolean hasProlific() {
+        for (SerialPort p : ports) {
+            if (p.getDriver() instanceof ProlificDriver) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queue whatever the port receives.
+     */
+    private void attach(final SerialPort port) {
+        final InputStream in = port.getInputStream();
+        port.notifyOnDataAvailable(true);
+        port.addEventListener(new SerialPortEventListener() {
+            @Override
+            public void serialEvent(SerialPortEvent ev) {
+                try {
+                    int n = in.available();
+                    if (n <= 0) {
+                        return;
+                    }
+                    byte[] b = new byte[n];
+                    n = in.read(b, 0, n);
+                    if (n < b.length) {
+                        byte[] t = new byte[Math.max(n, 0)];
+                        System.arraycopy(b, 0, t, 0, t.length);
+                        b = t;
+                    }
+                    if (!received.offer(new PortData(port, b, ev.getTimestamp()))) {
+                        dropped.incrementAndGet();
+                    }
+                } catch (IOException ex) {
+                    Log.e(Tag, "read failed on " + port.getName(), ex);
+                }
+            }
+        }, EventDelivery.IO_THREAD, SerialPortEvent.DATA_AVAILABLE);
+        ports.add(port);
+    }
+
+    /**
+     * @return every port opened and not closed yet.
+     */
+    public List<SerialPort> getPorts() {
+        return Collections.unmodifiableList(ports);
+    }
+
+    /**
+     * @return the next bytes received by any port, waiting for some if
+     * needed.
+     * @throws InterruptedException
+     */
+    public PortData take() throws InterruptedException {
+        return received.take();
+    }
+
+    /**
+     * @param timeout how long to wait
+     * @param unit unit of timeout
+     * @return the next bytes received by any port, or null if none came in
+     * time.
+     * @throws InterruptedException
+     */
+    public PortData poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return received.poll(timeout, unit);
+    }
+
+    /**
+     * @return the number of chunks dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Close one port and forget it.
+     */
+    public void close(SerialPort port) {
+        if (ports.remove(port)) {
+            port.close();
+        }
+    }
+
+    /**
+     * Close every port.
+     */
+    public void closeAll() {
+        for (SerialPort p : ports) {
+            close(p);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*This file is part of SerialPort_Android.
+ *
+ * SerialPort_Android is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * CustomPages is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Foobar.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright (c) Meï-Garino Jérémy
+ */
+package com.thebigbang;
+
+/**
+ * {@link FrameDecoder} for SLIP (RFC 1055) encoded frames: frames end with
+ * 0xC0, and 0xC0 / 0xDB inside a frame are escaped as 0xDB 0xDC / 0xDB 0xDD.
+ * <br/>
+ * Frames without any escape that arrive in one piece are passed to the
+ * listener without a copy. A bad escape sequence or a frame longer than the
+ * maximum size drops the frame, decoding starts again after the next 0xC0.
+ *
+ * @since 1.3
+ * @author Jeremy.Mei-Garino
+ */
+public final class SlipDecoder implements FrameDecoder {
+
+    public static final byte END = (byte) 0xC0;
+    public static final byte ESC = (byte) 0xDB;
+    public static final byte ESC_END = (byte) 0xDC;
+    public static final byte ESC_ESC = (byte) 0xDD;
+    private final byte[] frame;
+    private int count = 0;
+    private boolean escaped = false;
+    /**
+     * true while skipping a bad frame up to the next END.
+     */
+    private boolean discarding = false;
+    private long dropped = 0;
+
+    /**
+     * @param maxFrameSize the longest decoded frame accepted
+     */
+    public SlipDecoder(int maxFrameSize) {
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("Invalid frame size: " + maxFrameSize);
+        }
+        frame = new byte[maxFrameSize];
+    }
+
+    @Override
+    public void decode(byte b[], int off, int len, FrameListener listener) {
+        int end = off + len;
+        // b[run] to b[i - 1] are plain bytes of the frame not copied yet.
+        int run = off;
+        for (int i = off; i < end; i++) {
+            byte c = b[i];
+            if (discarding) {
+                if (c == END) {
+                    discarding = false;
+                }
+                run = i + 1;
+                continue;
+            }
+            if (escaped) {
+                escaped = false;
+                run = i + 1;
+                if (c == ESC_END) {
+                    append(END);
+                } else if (c == ESC_ESC) {
+                    append(ESC);
+                } else {
+                    drop(c != END);
+                }
+                continue;
+            }
+            if (c == ESC) {
+                if (append(b, run, i - run)) {
+                    escaped = true;
+                }
+                run = i + 1;
+            } else if (c == END) {
+                int n = i - run;
+                if (count == 0) {
+                    if (n > frame.length) {
+                        drop(false);
+                    } else if (n > 0) {
+                        // the whole frame is here, no copy.
+                        listener.onFrame(b, run, n);
+                    }
+                } else if (append(b, run, n)) {
+                    listener.onFrame(frame, 0, count);
+                    count = 0;
+                }
+                // an END after a dropped frame ends it.
+                discarding = false;
+                run = i + 1;
+            }
+        }
+        if (!discarding) {
+            append(b, run, end - run);
+        }
+    }
+
+    private void append(byte c) {
+        if (count == frame.length) {
+            drop(true);
+            return;
+        }
+        frame[count++] = c;
+    }
+
+    private boolean append(byte b[], int off, int len) {
+        if (len == 0) {
+            return true;
+        }
+        if (count + len > frame.length) {
+            drop(true);
+            return false;
+        }
+        System.arraycopy(b, off, frame, count, len);
+        count += len;
+        return true;
+    }
+
+    /**
+     * Drop the current frame.
+     *
+     * @param resync true to skip everything up to the next END.
+     */
+    private void drop(boolean resync) {
+        dropped++;
+        count = 0;
+        escaped = false;
+        discarding = resync;
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+        escaped = false;
+        discarding = false;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return dropped;
+    }
+}